@@ -1,35 +1,127 @@
 package algorithm;
 
+import datamodel.Parameters;
+
 /**
  * // Kernel Cache // // l is the number of total data items // size is the
  * cache size limit in bytes
+ *
+ * In half precision mode the columns are packed into short[] as bfloat16 (the
+ * upper 16 bits of a float), which doubles the number of cached columns. The
+ * caller then gets a decoded copy from get_data and has to hand newly computed
+ * entries back through put_data.
+ *
+ * With a spill size, evicted columns go to a memory-mapped SpillCache and are
+ * promoted back when they are requested again.
  */
 
 public class Cache {
 	private final int l;
 	private long size;
+	private final long size_bytes;
+	private boolean half;
 
 	private final class head_t {
 		head_t prev, next; // a cicular list
+		int index;
 		float[] data;
+		short[] packed; // used instead of data in half precision mode
 		int len; // data[0,len) is cached in this entry
 	}
 
 	private final head_t[] head;
 	private head_t lru_head;
 
+	// half precision: two decode buffers, the solver keeps Q_i and Q_j alive
+	private float[][] buffer;
+	private int next_buffer;
+
+	private final SpillCache spill;
+	private float[] spill_buffer;
+
+	// get_data calls and those that found the whole column cached
+	private long requests;
+	private long hits;
+
 	public Cache(int l_, long size_) {
+		this(l_, size_, false, 0);
+	}
+
+	// cache of param.cacheSize MB, half precision and spill size from param
+	public Cache(int l_, Parameters param) {
+		this(l_, (long) (param.cacheSize * (1 << 20)), param.halfCache == 1,
+				(long) (param.spillSize * (1 << 20)));
+	}
+
+	private Cache(int l_, long size_, boolean half_, long spill_size_) {
 		l = l_;
-		size = size_;
+		size_bytes = size_;
+		half = half_;
 		head = new head_t[l];
-		for (int i = 0; i < l; i++)
+		for (int i = 0; i < l; i++) {
 			head[i] = new head_t();
-		size /= 4;
-		size -= l * (16 / 4); // sizeof(head_t) == 16
+			head[i].index = i;
+		}
+		lru_head = new head_t();
+		lru_head.next = lru_head.prev = lru_head;
+		if (half) {
+			buffer = new float[2][l];
+			next_buffer = 0;
+		}
+		reset_size();
+		spill = (spill_size_ > 0) ? SpillCache.create(l, spill_size_, null) : null;
+		if (spill != null && half)
+			spill_buffer = new float[l];
+	}
+
+	private void reset_size() {
+		int unit = half ? 2 : 4;
+		size = size_bytes / unit;
+		size -= l * (16 / unit); // sizeof(head_t) == 16
 		size = Math.max(size, 2 * (long) l); // cache must be large enough for
 												// two columns
-		lru_head = new head_t();
+	}
+
+	public boolean is_half() {
+		return half;
+	}
+
+	// drop all half precision columns and continue in full precision
+	// return false if the cache already is in full precision
+	public boolean set_full_precision() {
+		if (!half)
+			return false;
+
+		for (int i = 0; i < l; i++) {
+			head[i].prev = head[i].next = null;
+			head[i].packed = null;
+			head[i].len = 0;
+		}
 		lru_head.next = lru_head.prev = lru_head;
+		half = false;
+		buffer = null;
+		if (spill != null)
+			spill.clear();
+		spill_buffer = null;
+		reset_size();
+		return true;
+	}
+
+	// release the spill file; the cache keeps working without it
+	public void close() {
+		if (spill != null)
+			spill.close();
+	}
+
+	static short encode(float value) {
+		// bfloat16 with round to nearest even
+		int bits = Float.floatToRawIntBits(value);
+		bits += 0x7FFF + ((bits >>> 16) & 1);
+		return (short) (bits >>> 16);
+	}
+
+	static float decode(short value) {
+		return Float.intBitsToFloat(value << 16);
 	}
 
 	private void lru_delete(head_t h) {
@@ -46,6 +138,35 @@ public class Cache {
 		h.next.prev = h;
 	}
 
+	// move an evicted column to the second tier
+	private void spill_entry(head_t h) {
+		if (spill == null)
+			return;
+		if (half) {
+			for (int j = 0; j < h.len; j++)
+				spill_buffer[j] = decode(h.packed[j]);
+			spill.spill(h.index, spill_buffer, h.len);
+		} else
+			spill.spill(h.index, h.data, h.len);
+	}
+
+	// promote a spilled column into the new space of h, return its length
+	private int restore_entry(head_t h, int len) {
+		if (half) {
+			int n = spill.restore(h.index, spill_buffer, len);
+			for (int j = 0; j < n; j++)
+				h.packed[j] = encode(spill_buffer[j]);
+			return n;
+		} else
+			return spill.restore(h.index, h.data, len);
+	}
+
+	private void free_entry(head_t h) {
+		h.data = null;
+		h.packed = null;
+		h.len = 0;
+	}
+
 	// request data [0,len)
 	// return some position p where [p,len) need to be filled
 	// (p >= len if nothing needs to be filled)
@@ -55,6 +176,9 @@ public class Cache {
 		if (h.len > 0)
 			lru_delete(h);
 		int more = len - h.len;
+		++requests;
+		if (more <= 0)
+			++hits;
 
 		if (more > 0) {
 			// free old space
@@ -62,32 +186,80 @@ public class Cache {
 				head_t old = lru_head.next;
 				lru_delete(old);
 				size += old.len;
-				old.data = null;
-				old.len = 0;
+				spill_entry(old);
+				free_entry(old);
 			}
 
 			// allocate new space
-			float[] new_data = new float[len];
-			if (h.data != null)
-				System.arraycopy(h.data, 0, new_data, 0, h.len);
-			h.data = new_data;
+			if (half) {
+				short[] new_packed = new short[len];
+				if (h.packed != null)
+					System.arraycopy(h.packed, 0, new_packed, 0, h.len);
+				h.packed = new_packed;
+			} else {
+				float[] new_data = new float[len];
+				if (h.data != null)
+					System.arraycopy(h.data, 0, new_data, 0, h.len);
+				h.data = new_data;
+			}
 			size -= more;
 			do {
 				int tmp = h.len;
 				h.len = len;
 				len = tmp;
 			} while (false);
+			if (len == 0 && spill != null && spill.contains(index))
+				len = restore_entry(h, h.len);
 		}
 
 		lru_insert(h);
-		data[0] = h.data;
+		if (half) {
+			float[] buf = buffer[next_buffer];
+			next_buffer = 1 - next_buffer;
+			short[] packed = h.packed;
+			for (int j = 0; j < len; j++)
+				buf[j] = decode(packed[j]);
+			data[0] = buf;
+		} else
+			data[0] = h.data;
 		return len;
 	}
 
+	// fraction of get_data calls that found the column cached, NaN before
+	// the first one
+	public double hit_rate() {
+		return (requests > 0) ? (double) hits / requests : Double.NaN;
+	}
+
+	// store [start,len) of a column filled after get_data
+	// (no-op in full precision mode since the caller filled the cache itself)
+	// the entries are rounded in data as well, so a column has the same
+	// values whether or not it came from the cache
+	public void put_data(int index, float[] data, int start, int len) {
+		if (!half)
+			return;
+		short[] packed = head[index].packed;
+		for (int j = start; j < len; j++) {
+			packed[j] = encode(data[j]);
+			data[j] = decode(packed[j]);
+		}
+	}
+
+	// return entry row of column index if it is cached, NaN otherwise
+	// (Q is symmetric, so a cached column j also holds row j of column i)
+	public float get_entry(int index, int row) {
+		head_t h = head[index];
+		if (h.len <= row)
+			return Float.NaN;
+		return half ? decode(h.packed[row]) : h.data[row];
+	}
+
 	public void swap_index(int i, int j) {
 		if (i == j)
 			return;
 
+		if (spill != null)
+			spill.swap_index(i, j);
 		if (head[i].len > 0)
 			lru_delete(head[i]);
 		if (head[j].len > 0)
@@ -97,6 +269,11 @@ public class Cache {
 			head[i].data = head[j].data;
 			head[j].data = tmp;
 		} while (false);
+		do {
+			short[] tmp = head[i].packed;
+			head[i].packed = head[j].packed;
+			head[j].packed = tmp;
+		} while (false);
 		do {
 			int tmp = head[i].len;
 			head[i].len = head[j].len;
@@ -115,18 +292,24 @@ public class Cache {
 			} while (false);
 		for (head_t h = lru_head.next; h != lru_head; h = h.next) {
 			if (h.len > i) {
-				if (h.len > j)
-					do {
-						float tmp = h.data[i];
-						h.data[i] = h.data[j];
-						h.data[j] = tmp;
-					} while (false);
-				else {
+				if (h.len > j) {
+					if (half)
+						do {
+							short tmp = h.packed[i];
+							h.packed[i] = h.packed[j];
+							h.packed[j] = tmp;
+						} while (false);
+					else
+						do {
+							float tmp = h.data[i];
+							h.data[i] = h.data[j];
+							h.data[j] = tmp;
+						} while (false);
+				} else {
 					// give up
 					lru_delete(h);
 					size += h.len;
-					h.data = null;
-					h.len = 0;
+					free_entry(h);
 				}
 			}
 		}
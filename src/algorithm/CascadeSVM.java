@@ -0,0 +1,269 @@
+package algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import datamodel.Model;
+import datamodel.Node;
+import datamodel.Parameters;
+import datamodel.Problem;
+
+/**
+ * Cascade SVM (Graf et al., "Parallel Support Vector Machines: The Cascade
+ * SVM", NIPS 2005) on top of SVM.svm_train.
+ *
+ * The problem is split into nr_partition stratified random parts which are
+ * trained in parallel. The support vectors of two sets are then merged and
+ * trained again, layer by layer, until one set is left. Non-support vectors
+ * of a part are very likely non-support vectors of the whole problem, so the
+ * later layers are small. The model of the last set is then verified on all
+ * samples: samples outside the set that violate the KKT conditions (alpha = 0
+ * requires y*f(x) >= 1 for C-SVC and |f(x) - y| <= p for epsilon-SVR) are
+ * added and the set is trained again, warm started from its last model,
+ * until there are none. The result is a solution of the whole problem.
+ *
+ * All trainings share one SessionCache (if param.sessionCacheSize > 0), so
+ * kernel values computed in a layer are reused by the later ones. Only C-SVC
+ * and epsilon-SVR are supported, as the nu formulations depend on the size of
+ * the set; probability estimates are not computed.
+ */
+public class CascadeSVM {
+	private CascadeSVM() {
+	}
+
+	public static Model train(Problem prob, Parameters param, int nr_partition) {
+		return train(prob, param, nr_partition, null);
+	}
+
+	// train with a control to cancel the cascade or read its duality gap
+	public static Model train(Problem prob, Parameters param, int nr_partition,
+			TrainingControl control) {
+		if (param.svmType != Parameters.C_SVC && param.svmType != Parameters.EPSILON_SVR) {
+			SVM.info("WARNING: cascade training needs C-SVC or epsilon-SVR, training directly\n");
+			return SVM.svm_train(prob, param, null, control);
+		}
+		if (LinearSolver.applies(param))
+			return SVM.svm_train(prob, param, null, control); // no SVs to merge
+		if (param.probability == 1)
+			SVM.info("WARNING: cascade training does not compute probability estimates\n");
+
+		control = TrainingControl.open(param, control);
+		SessionCache session = SessionCache.open(prob, param);
+		try {
+			return cascade(prob, param, Math.max(1, Math.min(nr_partition, prob.l)));
+		} finally {
+			if (session != null)
+				session.close();
+			if (control != null)
+				control.close();
+		}
+	}
+
+	private static Model cascade(Problem prob, Parameters param, int nr_partition) {
+		Parameters sub_param = (Parameters) param.clone();
+		sub_param.probability = 0;
+
+		// the parts run in parallel, each on one thread
+		Parameters part_param = (Parameters) sub_param.clone();
+		part_param.nrThreads = 1;
+
+		int nr_thread = Parallel.nr_thread(param.nrThreads);
+		int[][] sets = partition(prob, param, nr_partition);
+		Model[] models = train_sets(prob, part_param, sets, nr_thread);
+		SVM.info("cascade layer 1: " + sets.length + " sets of " + prob.l + " samples\n");
+		int layer = 1;
+		while (sets.length > 1) {
+			int n = (sets.length + 1) / 2;
+			int[][] merged = new int[n][];
+			for (int k = 0; k < n; k++)
+				if (2 * k + 1 < sets.length)
+					merged[k] = union(support(models[2 * k], sets[2 * k]),
+							support(models[2 * k + 1], sets[2 * k + 1]));
+				else
+					merged[k] = support(models[2 * k], sets[2 * k]);
+			sets = merged;
+			models = train_sets(prob, (n > 1) ? part_param : sub_param, sets, nr_thread);
+			SVM.info("cascade layer " + (++layer) + ": " + n + " sets of " + total(sets)
+					+ " samples\n");
+		}
+
+		// verification: add the violators of the whole problem until there
+		// are none; the set only grows, so this ends
+		int[] set = sets[0];
+		Model model = models[0];
+		TrainingControl control = TrainingControl.current();
+		for (int pass = 1;; pass++) {
+			int[] violators = violators(prob, param, model, set);
+			SVM.info("cascade pass " + pass + ": " + set.length + " samples, " + violators.length
+					+ " violators\n");
+			if (violators.length == 0 || (control != null && control.should_stop()))
+				break;
+			int[] grown = Arrays.copyOf(set, set.length + violators.length);
+			System.arraycopy(violators, 0, grown, set.length, violators.length);
+			set = grown;
+			// the new samples come last, so the svIndices of model still apply
+			model = SVM.svm_train(subproblem(prob, set), sub_param, model);
+		}
+
+		for (int k = 0; k < model.numSV; k++)
+			model.svIndices[k] = set[model.svIndices[k] - 1] + 1;
+		model.parameters = param;
+		return model;
+	}
+
+	// stratified random split: each class is shuffled and dealt round robin
+	private static int[][] partition(Problem prob, Parameters param, int nr_partition) {
+		int l = prob.l;
+		Integer[] order = new Integer[l];
+		for (int i = 0; i < l; i++)
+			order[i] = i;
+		for (int i = 0; i < l; i++) {
+			int j = i + SVM.rand.nextInt(l - i);
+			Integer tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		if (param.svmType == Parameters.C_SVC) {
+			final double[] y = prob.y;
+			Arrays.sort(order, new java.util.Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(y[a], y[b]);
+				}
+			});
+		}
+
+		int[][] sets = new int[nr_partition][];
+		int[] count = new int[nr_partition];
+		for (int p = 0; p < nr_partition; p++)
+			sets[p] = new int[(l - p + nr_partition - 1) / nr_partition];
+		for (int i = 0; i < l; i++) {
+			int p = i % nr_partition;
+			sets[p][count[p]++] = order[i];
+		}
+		return sets;
+	}
+
+	// a model for each set of samples of prob, nr_thread sets at a time
+	static Model[] train_sets(final Problem prob, final Parameters param,
+			final int[][] sets, int nr_thread) {
+		final Model[] models = new Model[sets.length];
+		final SessionCache session = SessionCache.current();
+		final TrainingControl control = TrainingControl.current();
+		Parallel.run(sets.length, Math.min(sets.length, nr_thread), new Parallel.Loop() {
+			public void run(int chunk, int begin, int end) {
+				// the calling thread may run a chunk itself, so put back
+				// what it had
+				SessionCache outer_session = SessionCache.current();
+				TrainingControl outer_control = TrainingControl.current();
+				SessionCache.attach(session);
+				TrainingControl.attach(control);
+				try {
+					for (int k = begin; k < end; k++)
+						models[k] = SVM.svm_train(subproblem(prob, sets[k]), param);
+				} finally {
+					SessionCache.attach(outer_session);
+					TrainingControl.attach(outer_control);
+				}
+			}
+		});
+		return models;
+	}
+
+	static Problem subproblem(Problem prob, int[] set) {
+		Problem sub = new Problem();
+		sub.l = set.length;
+		sub.x = new Node[sub.l][];
+		sub.y = new double[sub.l];
+		for (int k = 0; k < sub.l; k++) {
+			sub.x[k] = prob.x[set[k]];
+			sub.y[k] = prob.y[set[k]];
+		}
+		return sub;
+	}
+
+	// samples of the problem that are support vectors of model, trained on set
+	private static int[] support(Model model, int[] set) {
+		int[] sv = new int[model.numSV];
+		for (int k = 0; k < model.numSV; k++)
+			sv[k] = set[model.svIndices[k] - 1];
+		return sv;
+	}
+
+	private static int[] union(int[] a, int[] b) {
+		int[] u = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, u, a.length, b.length);
+		return u;
+	}
+
+	private static int total(int[][] sets) {
+		int n = 0;
+		for (int[] s : sets)
+			n += s.length;
+		return n;
+	}
+
+	// samples outside set at which model violates the KKT conditions of
+	// alpha = 0, in index order
+	private static int[] violators(final Problem prob, final Parameters param, final Model model,
+			int[] set) {
+		final boolean[] in_set = new boolean[prob.l];
+		for (int t : set)
+			in_set[t] = true;
+		final int nr_chunk = Parallel.nr_thread(param.nrThreads);
+		final List<List<Integer>> found = new ArrayList<List<Integer>>();
+		for (int c = 0; c < nr_chunk; c++)
+			found.add(new ArrayList<Integer>());
+
+		Parallel.run(prob.l, nr_chunk, new Parallel.Loop() {
+			public void run(int chunk, int begin, int end) {
+				int nr_class = model.numClasses;
+				double[] dec_values = new double[Math.max(1, nr_class * (nr_class - 1) / 2)];
+				for (int t = begin; t < end; t++)
+					if (!in_set[t] && violates(prob, param, model, t, dec_values))
+						found.get(chunk).add(t);
+			}
+		});
+
+		int n = 0;
+		for (List<Integer> f : found)
+			n += f.size();
+		int[] violators = new int[n];
+		n = 0;
+		for (List<Integer> f : found)
+			for (int t : f)
+				violators[n++] = t;
+		return violators;
+	}
+
+	private static boolean violates(Problem prob, Parameters param, Model model, int t,
+			double[] dec_values) {
+		double tolerance = param.eps;
+		if (param.svmType == Parameters.EPSILON_SVR) {
+			double f = SVM.svm_predict_values(model, prob.x[t], dec_values);
+			return Math.abs(f - prob.y[t]) > param.p + tolerance;
+		}
+
+		int nr_class = model.numClasses;
+		int a = -1;
+		for (int c = 0; c < nr_class; c++)
+			if (model.label[c] == (int) prob.y[t])
+				a = c;
+		if (a == -1)
+			return true; // a class the set has not seen
+		if (nr_class < 2)
+			return false;
+
+		SVM.svm_predict_values(model, prob.x[t], dec_values);
+		int p = 0;
+		for (int i = 0; i < nr_class; i++)
+			for (int j = i + 1; j < nr_class; j++) {
+				if (i == a && dec_values[p] < 1 - tolerance)
+					return true;
+				if (j == a && dec_values[p] > -1 + tolerance)
+					return true;
+				p++;
+			}
+		return false;
+	}
+}
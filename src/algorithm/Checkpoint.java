@@ -0,0 +1,250 @@
+package algorithm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Checkpoints of a solver run, so that a long training can be resumed after
+ * the process has been stopped.
+ *
+ * A run is identified by a fingerprint of its problem (l, p, y, Cp, Cn, the
+ * diagonal and the first column of Q) and of how it is solved (the initial
+ * alpha, eps and the shrinking mode), and its state goes to the file
+ * solver-<fingerprint>.ckpt of the checkpoint directory: iteration count,
+ * active_size, unshrink, and alpha, G, G_bar and active_set in the order the
+ * solver has them. active_set is the permutation shrinking has applied, so
+ * restoring it with swap_index brings Q into the same order.
+ *
+ * Every interval seconds the solver hands a copy of its arrays to a
+ * background thread, which writes a temporary file and renames it, so a
+ * checkpoint is always complete. The final state of each run is written as
+ * well; resuming a finished run costs no iterations.
+ */
+class Checkpoint {
+	private static final int MAGIC = 0x53564d43; // "SVMC"
+	private static final int VERSION = 1;
+
+	private static ExecutorService writer;
+
+	private final File file;
+	private final long fingerprint;
+	private final long interval; // in ns
+	private long next_time;
+	private Future<?> pending;
+
+	private Checkpoint(File dir, long fingerprint, double interval) {
+		file = new File(dir, "solver-" + String.format("%016x", fingerprint) + ".ckpt");
+		this.fingerprint = fingerprint;
+		this.interval = (long) (interval * 1e9);
+		next_time = System.nanoTime() + this.interval;
+	}
+
+	// checkpoints of solver s for the problem it has just been given, before
+	// alpha has moved from its initial value
+	static Checkpoint open(Solver s, int shrinking, String dir, double interval) {
+		File d = new File(dir);
+		if (!d.isDirectory() && !d.mkdirs()) {
+			SVM.info("WARNING: cannot create checkpoint directory " + dir + "\n");
+			return null;
+		}
+		return new Checkpoint(d, fingerprint(s, shrinking), interval);
+	}
+
+	private static synchronized ExecutorService writer() {
+		if (writer == null)
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "svm-checkpoint");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return writer;
+	}
+
+	// FNV-1a over the data that defines the problem and the run
+	private static long fingerprint(Solver s, int shrinking) {
+		long h = 0xcbf29ce484222325L;
+		h = mix(h, s.getClass().getName().hashCode());
+		h = mix(h, s.l);
+		h = mix(h, Double.doubleToLongBits(s.Cp));
+		h = mix(h, Double.doubleToLongBits(s.Cn));
+		h = mix(h, Double.doubleToLongBits(s.eps));
+		h = mix(h, shrinking);
+		float[] Q_0 = s.Q.get_Q(0, s.l);
+		for (int i = 0; i < s.l; i++) {
+			h = mix(h, s.y[i]);
+			h = mix(h, Double.doubleToLongBits(s.p[i]));
+			h = mix(h, Double.doubleToLongBits(s.QD[i]));
+			h = mix(h, Float.floatToIntBits(Q_0[i]));
+			h = mix(h, Double.doubleToLongBits(s.alpha[i]));
+		}
+		return h;
+	}
+
+	private static long mix(long h, long v) {
+		for (int b = 0; b < 64; b += 8) {
+			h ^= (v >>> b) & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	// whether the interval has passed since the last checkpoint
+	boolean due() {
+		return interval > 0 && System.nanoTime() - next_time >= 0;
+	}
+
+	// write the state of s in the background; a write still in progress is
+	// waited for first, so there is at most one copy of the state
+	void save(Solver s, int iter) {
+		await();
+		final int l = s.l;
+		final int iter_ = iter;
+		final int active_size = s.active_size;
+		final boolean unshrink = s.unshrink;
+		final double[] alpha = s.alpha.clone();
+		final double[] G = s.G.clone();
+		final double[] G_bar = (s.G_bar != null) ? s.G_bar.clone() : new double[l];
+		final int[] active_set = s.active_set.clone();
+		pending = writer().submit(new Runnable() {
+			public void run() {
+				write(l, iter_, active_size, unshrink, alpha, G, G_bar, active_set);
+			}
+		});
+		next_time = System.nanoTime() + interval;
+	}
+
+	// wait for the last save to be on disk
+	void await() {
+		if (pending == null)
+			return;
+		try {
+			pending.get();
+		} catch (Exception e) {
+			SVM.info("WARNING: checkpoint " + file + " failed: " + e + "\n");
+		}
+		pending = null;
+	}
+
+	private void write(int l, int iter, int active_size, boolean unshrink, double[] alpha,
+			double[] G, double[] G_bar, int[] active_set) {
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(fingerprint);
+				out.writeInt(l);
+				out.writeInt(iter);
+				out.writeInt(active_size);
+				out.writeBoolean(unshrink);
+				for (int i = 0; i < l; i++) {
+					out.writeDouble(alpha[i]);
+					out.writeDouble(G[i]);
+					out.writeDouble(G_bar[i]);
+					out.writeInt(active_set[i]);
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file))
+					throw new IOException("cannot rename " + tmp);
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			SVM.info("WARNING: cannot write checkpoint " + file + ": " + e.getMessage() + "\n");
+		}
+	}
+
+	// load the checkpoint of this run into s, which has its initial state
+	// with active_set the identity, and return its iteration count
+	// return -1 (leaving s as it was) if there is no valid checkpoint
+	int restore(Solver s) {
+		if (!file.isFile())
+			return -1;
+		int l = s.l;
+		int iter, active_size;
+		boolean unshrink;
+		double[] alpha = new double[l];
+		double[] G = new double[l];
+		double[] G_bar = new double[l];
+		int[] active_set = new int[l];
+		try {
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION
+						|| in.readLong() != fingerprint || in.readInt() != l)
+					throw new IOException("not a checkpoint of this problem");
+				iter = in.readInt();
+				active_size = in.readInt();
+				unshrink = in.readBoolean();
+				for (int i = 0; i < l; i++) {
+					alpha[i] = in.readDouble();
+					G[i] = in.readDouble();
+					G_bar[i] = in.readDouble();
+					active_set[i] = in.readInt();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			SVM.info("WARNING: cannot read checkpoint " + file + ": " + e.getMessage() + "\n");
+			return -1;
+		}
+
+		// apply the permutation: position[t] is where variable t is now
+		int[] position = new int[l];
+		for (int i = 0; i < l; i++)
+			position[i] = i;
+		for (int k = 0; k < l; k++) {
+			int j = position[active_set[k]];
+			if (j != k) {
+				int t = s.active_set[k];
+				s.swap_index(k, j);
+				position[t] = j;
+				position[active_set[k]] = k;
+			}
+		}
+
+		System.arraycopy(alpha, 0, s.alpha, 0, l);
+		System.arraycopy(G, 0, s.G, 0, l);
+		if (s.G_bar == null)
+			s.G_bar = new double[l];
+		System.arraycopy(G_bar, 0, s.G_bar, 0, l);
+		for (int i = 0; i < l; i++)
+			s.update_alpha_status(i);
+		s.active_size = active_size;
+		s.unshrink = unshrink;
+		s.invalidate_violators();
+		SVM.info("resumed from " + file + " at iteration " + iter + "\n");
+		return iter;
+	}
+
+	// remove the checkpoints in dir
+	static void delete_all(String dir) {
+		File[] files = new File(dir).listFiles();
+		if (files == null)
+			return;
+		for (File f : files) {
+			String name = f.getName();
+			if (name.startsWith("solver-") && (name.endsWith(".ckpt") || name.endsWith(".ckpt.tmp")))
+				f.delete();
+		}
+	}
+}
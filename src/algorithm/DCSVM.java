@@ -0,0 +1,433 @@
+package algorithm;
+
+import java.util.Arrays;
+
+import algorithm.kernel.Kernel;
+import datamodel.Model;
+import datamodel.Node;
+import datamodel.Parameters;
+import datamodel.Problem;
+
+/**
+ * Divide-and-conquer SVM (Hsieh, Si and Dhillon, "A Divide-and-Conquer Solver
+ * for Kernel Support Vector Machines", ICML 2014).
+ *
+ * The samples are clustered by kernel k-means in the feature space of the
+ * kernel: k-means (seeded by k-means++) runs on a random sample of the
+ * problem, and every sample then goes to the nearest of the cluster centers.
+ * Clusters in feature space have few kernel values between them, so an SVM
+ * trained on each cluster (in parallel) is close to the global solution on
+ * it. model() trains the whole problem warm started from the local solutions
+ * put together, which leaves the solver little to do.
+ *
+ * The local models can also be used directly: predict(x) classifies x by the
+ * model of its cluster, an approximation at the cost of one kernel row over
+ * the sample and one small model.
+ *
+ * If param.sessionCacheSize > 0, the kernel values of the local trainings are
+ * kept for the global one.
+ */
+public class DCSVM {
+	private static final int SAMPLE_PER_CLUSTER = 50; // rows of the k-means sample
+	private static final int MAX_SAMPLE = 2000;
+	private static final int MAX_ITER = 100; // of k-means
+
+	private final Problem prob;
+	private final Parameters param;
+
+	// the clusters, as sets of rows of the k-means sample
+	private Node[][] sample;
+	private int[] sample_cluster;
+	private int[] size; // rows of the sample in each cluster, 0 if it is not used
+	private double[] center_norm; // squared norm of each center in feature space
+
+	private int[][] members; // samples of prob in each cluster
+	private Model[] local;
+	private SessionCache session;
+	private TrainingControl control; // of the local and the global training
+	private Model model;
+
+	private DCSVM(Problem prob, Parameters param) {
+		this.prob = prob;
+		this.param = param;
+	}
+
+	// cluster prob into at most nr_cluster clusters and train a model on each
+	public static DCSVM train(Problem prob, Parameters param, int nr_cluster) {
+		return train(prob, param, nr_cluster, null);
+	}
+
+	// train with a control to cancel the training or read its duality gap;
+	// the control, and the deadline of param.timeLimit, also cover the
+	// global training of model()
+	public static DCSVM train(Problem prob, Parameters param, int nr_cluster,
+			TrainingControl control) {
+		DCSVM dc = new DCSVM(prob, param);
+		TrainingControl opened = TrainingControl.open(param, control);
+		dc.control = TrainingControl.current();
+		dc.session = SessionCache.open(prob, param);
+		try {
+			dc.cluster(Math.max(1, Math.min(nr_cluster, prob.l)));
+			dc.train_local();
+		} finally {
+			if (dc.session != null)
+				dc.session.close();
+			if (opened != null)
+				opened.close();
+		}
+		return dc;
+	}
+
+	// train the model of the whole problem from the local models
+	public static Model svm_train(Problem prob, Parameters param, int nr_cluster) {
+		return train(prob, param, nr_cluster).model();
+	}
+
+	public static Model svm_train(Problem prob, Parameters param, int nr_cluster,
+			TrainingControl control) {
+		return train(prob, param, nr_cluster, control).model();
+	}
+
+	// the model of the whole problem, trained on the first call
+	public synchronized Model model() {
+		if (model != null)
+			return model;
+		SessionCache outer = SessionCache.current();
+		TrainingControl outer_control = TrainingControl.current();
+		if (session != null)
+			SessionCache.attach(session);
+		// attached, the control is not opened again, so its deadline stays
+		if (control != null)
+			TrainingControl.attach(control);
+		try {
+			// linear models keep w only, the linear solver starts from zero
+			model = SVM.svm_train(prob, param, LinearSolver.applies(param) ? null : merged());
+		} finally {
+			SessionCache.attach(outer);
+			TrainingControl.attach(outer_control);
+		}
+		session = null;
+		control = null;
+		return model;
+	}
+
+	// early prediction: the prediction of the local model of the cluster of x
+	public double predict(Node[] x) {
+		return SVM.svm_predict(local[nearest(x)], x);
+	}
+
+	public int nr_cluster() {
+		int n = 0;
+		for (int c = 0; c < size.length; c++)
+			if (size[c] > 0)
+				n++;
+		return n;
+	}
+
+	private void cluster(int nr_cluster) {
+		int l = prob.l;
+		int m = Math.min(l, Math.min(MAX_SAMPLE, SAMPLE_PER_CLUSTER * nr_cluster));
+		int[] index = new int[l];
+		for (int i = 0; i < l; i++)
+			index[i] = i;
+		sample = new Node[m][];
+		for (int i = 0; i < m; i++) {
+			int j = i + SVM.rand.nextInt(l - i);
+			do {
+				int tmp = index[i];
+				index[i] = index[j];
+				index[j] = tmp;
+			} while (false);
+			sample[i] = prob.x[index[i]];
+		}
+
+		final float[][] K = new float[m][m];
+		final Node[][] rows = sample;
+		final Parameters kparam = param;
+		Parallel.run(m, Parallel.nr_thread(param.nrThreads), new Parallel.Loop() {
+			public void run(int chunk, int begin, int end) {
+				for (int i = begin; i < end; i++)
+					for (int j = 0; j < rows.length; j++)
+						K[i][j] = (float) Kernel.k_function(rows[i], rows[j], kparam);
+			}
+		});
+
+		sample_cluster = kernel_kmeans(K, Math.min(nr_cluster, m), Parallel.nr_thread(param.nrThreads));
+		size = new int[nr_cluster];
+		center_norm = new double[nr_cluster];
+		for (int i = 0; i < m; i++) {
+			size[sample_cluster[i]]++;
+			for (int j = 0; j < m; j++)
+				if (sample_cluster[i] == sample_cluster[j])
+					center_norm[sample_cluster[i]] += K[i][j];
+		}
+		for (int c = 0; c < nr_cluster; c++)
+			if (size[c] > 0)
+				center_norm[c] /= (double) size[c] * size[c];
+
+		// assign every sample to its nearest center
+		final int[] cluster = new int[l];
+		Parallel.run(l, Parallel.nr_thread(param.nrThreads), new Parallel.Loop() {
+			public void run(int chunk, int begin, int end) {
+				for (int t = begin; t < end; t++)
+					cluster[t] = nearest(prob.x[t]);
+			}
+		});
+		int[] count = new int[nr_cluster];
+		for (int t = 0; t < l; t++)
+			count[cluster[t]]++;
+		members = new int[nr_cluster][];
+		for (int c = 0; c < nr_cluster; c++) {
+			members[c] = new int[count[c]];
+			if (count[c] == 0)
+				size[c] = 0;
+		}
+		count = new int[nr_cluster];
+		for (int t = 0; t < l; t++)
+			members[cluster[t]][count[cluster[t]]++] = t;
+
+		StringBuilder sizes = new StringBuilder();
+		for (int c = 0; c < nr_cluster; c++)
+			if (size[c] > 0)
+				sizes.append(' ').append(members[c].length);
+		SVM.info("dcsvm: " + nr_cluster() + " clusters of" + sizes + " samples\n");
+	}
+
+	// the cluster whose center is nearest to x in feature space:
+	// |phi(x) - center|^2 = k(x,x) - 2/n sum k(x,s) + center_norm
+	private int nearest(Node[] x) {
+		int nr_cluster = size.length;
+		double[] sum = new double[nr_cluster];
+		for (int s = 0; s < sample.length; s++)
+			if (size[sample_cluster[s]] > 0)
+				sum[sample_cluster[s]] += Kernel.k_function(x, sample[s], param);
+		int best = -1;
+		double best_dist = Double.POSITIVE_INFINITY;
+		for (int c = 0; c < nr_cluster; c++)
+			if (size[c] > 0) {
+				double dist = center_norm[c] - 2 * sum[c] / size[c];
+				if (best == -1 || dist < best_dist) {
+					best = c;
+					best_dist = dist;
+				}
+			}
+		return best;
+	}
+
+	// kernel k-means over the kernel matrix K of m points into k clusters,
+	// seeded by k-means++; return the cluster of each point
+	private static int[] kernel_kmeans(final float[][] K, final int k, int nr_thread) {
+		final int m = K.length;
+
+		// k-means++ seeds, at distance K_ii - 2 K_is + K_ss from point i
+		int[] seed = new int[k];
+		double[] dist = new double[m];
+		seed[0] = SVM.rand.nextInt(m);
+		for (int i = 0; i < m; i++)
+			dist[i] = Math.max(0, K[i][i] - 2 * K[i][seed[0]] + K[seed[0]][seed[0]]);
+		int nr_seed = 1;
+		while (nr_seed < k) {
+			double total = 0;
+			for (int i = 0; i < m; i++)
+				total += dist[i];
+			if (total <= 0)
+				break; // fewer distinct points than clusters
+			double r = SVM.rand.nextDouble() * total;
+			int s = 0;
+			while (s < m - 1 && (r -= dist[s]) > 0)
+				s++;
+			seed[nr_seed++] = s;
+			for (int i = 0; i < m; i++)
+				dist[i] = Math.min(dist[i], Math.max(0, K[i][i] - 2 * K[i][s] + K[s][s]));
+		}
+
+		final int[] cluster = new int[m];
+		for (int i = 0; i < m; i++) {
+			double best_dist = Double.POSITIVE_INFINITY;
+			for (int c = 0; c < nr_seed; c++) {
+				double d = K[i][i] - 2 * K[i][seed[c]] + K[seed[c]][seed[c]];
+				if (d < best_dist) {
+					best_dist = d;
+					cluster[i] = c;
+				}
+			}
+		}
+
+		// Lloyd iterations: point i to the cluster c minimizing
+		// -2/n_c sum_{j in c} K_ij + 1/n_c^2 sum_{j,j' in c} K_jj'
+		final int[] count = new int[k];
+		final double[] norm = new double[k];
+		for (int iter = 0; iter < MAX_ITER; iter++) {
+			Arrays.fill(count, 0);
+			Arrays.fill(norm, 0);
+			for (int i = 0; i < m; i++)
+				count[cluster[i]]++;
+			for (int i = 0; i < m; i++)
+				for (int j = 0; j < m; j++)
+					if (cluster[i] == cluster[j])
+						norm[cluster[i]] += K[i][j];
+			for (int c = 0; c < k; c++)
+				if (count[c] > 0)
+					norm[c] /= (double) count[c] * count[c];
+
+			final int[] next = new int[m];
+			Parallel.run(m, nr_thread, new Parallel.Loop() {
+				public void run(int chunk, int begin, int end) {
+					double[] sum = new double[k];
+					for (int i = begin; i < end; i++) {
+						Arrays.fill(sum, 0);
+						for (int j = 0; j < m; j++)
+							sum[cluster[j]] += K[i][j];
+						int best = cluster[i];
+						double best_dist = norm[best] - 2 * sum[best] / count[best];
+						for (int c = 0; c < k; c++)
+							if (count[c] > 0) {
+								double d = norm[c] - 2 * sum[c] / count[c];
+								if (d < best_dist) {
+									best = c;
+									best_dist = d;
+								}
+							}
+						next[i] = best;
+					}
+				}
+			});
+			int changed = 0;
+			for (int i = 0; i < m; i++)
+				if (next[i] != cluster[i]) {
+					cluster[i] = next[i];
+					changed++;
+				}
+			if (changed == 0)
+				break;
+		}
+		return cluster;
+	}
+
+	private void train_local() {
+		Parameters local_param = (Parameters) param.clone();
+		local_param.probability = 0;
+		local_param.nrThreads = 1; // the clusters run in parallel
+
+		int nr_cluster = size.length;
+		int n = 0;
+		for (int c = 0; c < nr_cluster; c++)
+			if (members[c].length > 0)
+				n++;
+		int[][] sets = new int[n][];
+		n = 0;
+		for (int c = 0; c < nr_cluster; c++)
+			if (members[c].length > 0)
+				sets[n++] = members[c];
+
+		Model[] models = CascadeSVM.train_sets(prob, local_param, sets,
+				Parallel.nr_thread(param.nrThreads));
+		local = new Model[nr_cluster];
+		n = 0;
+		for (int c = 0; c < nr_cluster; c++)
+			if (members[c].length > 0)
+				local[c] = models[n++];
+	}
+
+	// the local solutions as one model of prob, to start the global training
+	// from; the coefficients are those of the local models, with indices into
+	// prob and the classes in the order of the whole problem
+	private Model merged() {
+		int nr_cluster = local.length;
+		Model m = new Model();
+		m.parameters = param;
+		m.numClasses = 2;
+
+		if (param.svmType == Parameters.ONE_CLASS || param.svmType == Parameters.EPSILON_SVR
+				|| param.svmType == Parameters.NU_SVR) {
+			int total = 0;
+			for (int c = 0; c < nr_cluster; c++)
+				if (local[c] != null)
+					total += local[c].numSV;
+			m.numSV = total;
+			m.SV = new Node[total][];
+			m.svCoefficients = new double[1][total];
+			m.svIndices = new int[total];
+			m.rho = new double[1];
+			int pos = 0;
+			for (int c = 0; c < nr_cluster; c++)
+				if (local[c] != null)
+					for (int k = 0; k < local[c].numSV; k++, pos++) {
+						m.SV[pos] = local[c].SV[k];
+						m.svCoefficients[0][pos] = local[c].svCoefficients[0][k];
+						m.svIndices[pos] = members[c][local[c].svIndices[k] - 1] + 1;
+					}
+			return m;
+		}
+
+		// labels in order of appearance, as svm_train groups them
+		int[] label = new int[16];
+		int nr_class = 0;
+		for (int t = 0; t < prob.l; t++) {
+			int y = (int) prob.y[t];
+			if (index_of(label, nr_class, y) == -1) {
+				if (nr_class == label.length)
+					label = Arrays.copyOf(label, 2 * nr_class);
+				label[nr_class++] = y;
+			}
+		}
+		label = Arrays.copyOf(label, nr_class);
+
+		int[] nSV = new int[nr_class];
+		for (int c = 0; c < nr_cluster; c++)
+			if (local[c] != null)
+				for (int a = 0; a < local[c].numClasses; a++)
+					nSV[index_of(label, nr_class, local[c].label[a])] += local[c].nSV[a];
+		int[] fill = new int[nr_class];
+		int total = 0;
+		for (int a = 0; a < nr_class; a++) {
+			fill[a] = total;
+			total += nSV[a];
+		}
+
+		m.numClasses = nr_class;
+		m.label = label;
+		m.nSV = nSV;
+		m.numSV = total;
+		m.SV = new Node[total][];
+		m.svCoefficients = new double[Math.max(1, nr_class - 1)][total];
+		m.svIndices = new int[total];
+		m.rho = new double[nr_class * (nr_class - 1) / 2];
+
+		// the coefficient of a SV of class a against class b is in sv_coef[b-1]
+		// if a < b and in sv_coef[b] otherwise, positive for y = +1, which is
+		// the smaller class of the pair
+		for (int c = 0; c < nr_cluster; c++) {
+			Model L = local[c];
+			if (L == null)
+				continue;
+			int[] g = new int[L.numClasses];
+			for (int a = 0; a < L.numClasses; a++)
+				g[a] = index_of(label, nr_class, L.label[a]);
+			int start = 0;
+			for (int a = 0; a < L.numClasses; a++) {
+				for (int k = start; k < start + L.nSV[a]; k++) {
+					int pos = fill[g[a]]++;
+					m.SV[pos] = L.SV[k];
+					m.svIndices[pos] = members[c][L.svIndices[k] - 1] + 1;
+					for (int b = 0; b < L.numClasses; b++)
+						if (b != a) {
+							double coef = L.svCoefficients[b > a ? b - 1 : b][k];
+							if ((a < b) != (g[a] < g[b]))
+								coef = -coef;
+							m.svCoefficients[g[b] > g[a] ? g[b] - 1 : g[b]][pos] = coef;
+						}
+				}
+				start += L.nSV[a];
+			}
+		}
+		return m;
+	}
+
+	private static int index_of(int[] label, int n, int y) {
+		for (int a = 0; a < n; a++)
+			if (label[a] == y)
+				return a;
+		return -1;
+	}
+}
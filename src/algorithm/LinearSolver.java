@@ -0,0 +1,487 @@
+package algorithm;
+
+import java.util.Arrays;
+
+import datamodel.Model;
+import datamodel.Node;
+import datamodel.Parameters;
+import datamodel.Problem;
+
+//A dual coordinate descent method for linear SVM in Hsieh et al., ICML 2008,
+//and for linear SVR in Ho and Lin, JMLR 13(2012), p. 3323--3348, as in
+//LIBLINEAR
+//Solves, for C-SVC:
+//
+//	min 0.5(\alpha^T Q \alpha) - e^T \alpha
+//
+//		0 <= alpha_i <= Cp for y_i = 1
+//		0 <= alpha_i <= Cn for y_i = -1
+//
+//and for epsilon-SVR:
+//
+//	min 0.5(\beta^T Q \beta) - y^T \beta + p |\beta|_1
+//
+//		-C <= beta_i <= C
+//
+//with Q_ij = y_i y_j (x_i^T x_j + 1) and x_i^T x_j + 1 respectively
+//
+//w = sum y_i alpha_i x_i (sum beta_i x_i) is kept explicitly, so a step costs
+//one sparse dot product and one sparse update instead of a kernel column.
+//The bias is the weight of a constant feature 1: it is regularized and there
+//is no equality constraint y^T \alpha = 0, so the solution is slightly
+//different from that of Solver.
+//
+//Variables are visited in random order and shrunk as in LIBLINEAR; the run
+//stops when the violation is below eps on all of them.
+//
+class LinearSolver {
+	private static final int MAX_ITER = 1000; // passes over the data
+	private static final double INF = Double.POSITIVE_INFINITY;
+
+	// whether training with param uses this solver
+	static boolean applies(Parameters param) {
+		return param.kernelType == Parameters.LINEAR && param.linearSolver == 0
+				&& (param.svmType == Parameters.C_SVC || param.svmType == Parameters.EPSILON_SVR);
+	}
+
+	// alpha gets the signed coefficients y_i alpha_i, as from SVM.solve_c_svc
+	static void solve_c_svc(Problem prob, Parameters param, double[] alpha,
+			Solver.SolutionInfo si, double Cp, double Cn, double[] init) {
+		int l = prob.l;
+		Node[][] x = prob.x;
+		byte[] y = new byte[l];
+		double[] QD = new double[l];
+		double[] w = new double[dimension(x) + 1];
+		double b = 0;
+		int[] index = new int[l];
+		int i, s;
+
+		for (i = 0; i < l; i++) {
+			y[i] = (byte) ((prob.y[i] > 0) ? +1 : -1);
+			QD[i] = norm2(x[i]) + 1;
+			alpha[i] = (init != null) ? Math.min(Math.max(y[i] * init[i], 0), (y[i] > 0) ? Cp : Cn)
+					: 0;
+			if (alpha[i] != 0) {
+				add(w, x[i], y[i] * alpha[i]);
+				b += y[i] * alpha[i];
+			}
+			index[i] = i;
+		}
+
+		int max_iter = (param.maxIterations > 0) ? param.maxIterations : MAX_ITER;
+		boolean shrinking = param.shrinking != 0;
+		TrainingControl control = TrainingControl.current();
+		boolean stopped = false;
+		SolverListener listener = SVM.solver_listener;
+		SolverProgress progress = (listener != null) ? start(l) : null;
+		long start_time = System.nanoTime();
+		double last_violation = INF; // of the last pass
+		int active_size = l;
+		double PGmax_old = INF;
+		double PGmin_old = -INF;
+		int iter = 0;
+		while (iter < max_iter) {
+			if (control != null && control.should_stop()) {
+				stopped = true;
+				break;
+			}
+			double PGmax_new = -INF;
+			double PGmin_new = INF;
+
+			for (s = 0; s < active_size; s++) {
+				int j = s + SVM.rand.nextInt(active_size - s);
+				do {
+					int tmp = index[s];
+					index[s] = index[j];
+					index[j] = tmp;
+				} while (false);
+			}
+
+			for (s = 0; s < active_size; s++) {
+				i = index[s];
+				double C = (y[i] > 0) ? Cp : Cn;
+				double G = y[i] * (dot(w, x[i]) + b) - 1;
+				double PG = 0;
+				if (alpha[i] == 0) {
+					if (shrinking && G > PGmax_old) {
+						active_size--;
+						do {
+							int tmp = index[s];
+							index[s] = index[active_size];
+							index[active_size] = tmp;
+						} while (false);
+						s--;
+						continue;
+					} else if (G < 0)
+						PG = G;
+				} else if (alpha[i] == C) {
+					if (shrinking && G < PGmin_old) {
+						active_size--;
+						do {
+							int tmp = index[s];
+							index[s] = index[active_size];
+							index[active_size] = tmp;
+						} while (false);
+						s--;
+						continue;
+					} else if (G > 0)
+						PG = G;
+				} else
+					PG = G;
+
+				PGmax_new = Math.max(PGmax_new, PG);
+				PGmin_new = Math.min(PGmin_new, PG);
+
+				if (Math.abs(PG) > 1.0e-12) {
+					double alpha_old = alpha[i];
+					alpha[i] = Math.min(Math.max(alpha[i] - G / QD[i], 0.0), C);
+					double d = (alpha[i] - alpha_old) * y[i];
+					add(w, x[i], d);
+					b += d;
+				}
+			}
+
+			iter++;
+			if (iter % 10 == 0)
+				SVM.info(".");
+			last_violation = PGmax_new - PGmin_new;
+			if (progress != null)
+				report(listener, progress, iter, last_violation, active_size, alpha, y, Cp, Cn, start_time);
+
+			if (PGmax_new - PGmin_new <= param.eps) {
+				if (active_size == l)
+					break;
+				else {
+					active_size = l;
+					SVM.info("*");
+					PGmax_old = INF;
+					PGmin_old = -INF;
+					continue;
+				}
+			}
+			PGmax_old = PGmax_new;
+			PGmin_old = PGmin_new;
+			if (PGmax_old <= 0)
+				PGmax_old = INF;
+			if (PGmin_old >= 0)
+				PGmin_old = -INF;
+		}
+
+		if (progress != null) {
+			progress.finished = true;
+			report(listener, progress, iter, last_violation, active_size, alpha, y, Cp, Cn, start_time);
+		}
+
+		// dual objective and duality gap
+		double wTw = b * b;
+		for (double v : w)
+			wTw += v * v;
+		double sum_alpha = 0, loss = 0;
+		for (i = 0; i < l; i++) {
+			sum_alpha += alpha[i];
+			loss += ((y[i] > 0) ? Cp : Cn) * Math.max(0, 1 - y[i] * (dot(w, x[i]) + b));
+			alpha[i] *= y[i];
+		}
+		si.obj = wTw / 2 - sum_alpha;
+		si.gap = wTw / 2 + loss + si.obj;
+		si.rho = -b;
+		si.upper_bound_p = Cp;
+		si.upper_bound_n = Cn;
+		finish(si, iter, iter >= max_iter, stopped, control);
+	}
+
+	// alpha gets the coefficients beta_i, as from SVM.solve_epsilon_svr
+	static void solve_epsilon_svr(Problem prob, Parameters param, double[] alpha,
+			Solver.SolutionInfo si, double[] init) {
+		int l = prob.l;
+		Node[][] x = prob.x;
+		double C = param.C;
+		double p = param.p;
+		double[] beta = alpha;
+		double[] QD = new double[l];
+		double[] w = new double[dimension(x) + 1];
+		double b = 0;
+		int[] index = new int[l];
+		int i, s;
+
+		for (i = 0; i < l; i++) {
+			QD[i] = norm2(x[i]) + 1;
+			beta[i] = (init != null) ? Math.min(Math.max(init[i], -C), C) : 0;
+			if (beta[i] != 0) {
+				add(w, x[i], beta[i]);
+				b += beta[i];
+			}
+			index[i] = i;
+		}
+
+		int max_iter = (param.maxIterations > 0) ? param.maxIterations : MAX_ITER;
+		boolean shrinking = param.shrinking != 0;
+		TrainingControl control = TrainingControl.current();
+		boolean stopped = false;
+		SolverListener listener = SVM.solver_listener;
+		SolverProgress progress = (listener != null) ? start(l) : null;
+		long start_time = System.nanoTime();
+		double last_violation = INF; // of the last pass
+		int active_size = l;
+		double Gmax_old = INF;
+		int iter = 0;
+		while (iter < max_iter) {
+			if (control != null && control.should_stop()) {
+				stopped = true;
+				break;
+			}
+			double Gmax_new = 0;
+
+			for (s = 0; s < active_size; s++) {
+				int j = s + SVM.rand.nextInt(active_size - s);
+				do {
+					int tmp = index[s];
+					index[s] = index[j];
+					index[j] = tmp;
+				} while (false);
+			}
+
+			for (s = 0; s < active_size; s++) {
+				i = index[s];
+				double G = dot(w, x[i]) + b - prob.y[i];
+				double H = QD[i];
+				double Gp = G + p;
+				double Gn = G - p;
+				double violation = 0;
+				boolean shrink = false;
+				if (beta[i] == 0) {
+					if (Gp < 0)
+						violation = -Gp;
+					else if (Gn > 0)
+						violation = Gn;
+					else if (Gp > Gmax_old && Gn < -Gmax_old)
+						shrink = true;
+				} else if (beta[i] >= C) {
+					if (Gp > 0)
+						violation = Gp;
+					else if (Gp < -Gmax_old)
+						shrink = true;
+				} else if (beta[i] <= -C) {
+					if (Gn < 0)
+						violation = -Gn;
+					else if (Gn > Gmax_old)
+						shrink = true;
+				} else if (beta[i] > 0)
+					violation = Math.abs(Gp);
+				else
+					violation = Math.abs(Gn);
+
+				if (shrink && shrinking) {
+					active_size--;
+					do {
+						int tmp = index[s];
+						index[s] = index[active_size];
+						index[active_size] = tmp;
+					} while (false);
+					s--;
+					continue;
+				}
+				Gmax_new = Math.max(Gmax_new, violation);
+
+				// Newton direction of the one variable problem
+				double d;
+				if (Gp < H * beta[i])
+					d = -Gp / H;
+				else if (Gn > H * beta[i])
+					d = -Gn / H;
+				else
+					d = -beta[i];
+				if (Math.abs(d) < 1.0e-12)
+					continue;
+
+				double beta_old = beta[i];
+				beta[i] = Math.min(Math.max(beta[i] + d, -C), C);
+				d = beta[i] - beta_old;
+				if (d != 0) {
+					add(w, x[i], d);
+					b += d;
+				}
+			}
+
+			iter++;
+			if (iter % 10 == 0)
+				SVM.info(".");
+			last_violation = Gmax_new;
+			if (progress != null)
+				report(listener, progress, iter, last_violation, active_size, beta, null, C, C, start_time);
+
+			if (Gmax_new <= param.eps) {
+				if (active_size == l)
+					break;
+				else {
+					active_size = l;
+					SVM.info("*");
+					Gmax_old = INF;
+					continue;
+				}
+			}
+			Gmax_old = Gmax_new;
+		}
+
+		if (progress != null) {
+			progress.finished = true;
+			report(listener, progress, iter, last_violation, active_size, beta, null, C, C, start_time);
+		}
+
+		// dual objective and duality gap
+		double wTw = b * b;
+		for (double v : w)
+			wTw += v * v;
+		double v = wTw / 2, loss = 0;
+		for (i = 0; i < l; i++) {
+			v += p * Math.abs(beta[i]) - prob.y[i] * beta[i];
+			loss += C * Math.max(0, Math.abs(dot(w, x[i]) + b - prob.y[i]) - p);
+		}
+		si.obj = v;
+		si.gap = wTw / 2 + loss + si.obj;
+		si.rho = -b;
+		si.upper_bound_p = C;
+		si.upper_bound_n = C;
+		finish(si, iter, iter >= max_iter, stopped, control);
+	}
+
+	// progress of a run for the listener, which is reported after every pass
+	// over the data
+	private static SolverProgress start(int l) {
+		SolverProgress progress = new SolverProgress();
+		progress.run = Solver.nr_run.incrementAndGet();
+		progress.l = l;
+		progress.cache_hit_rate = Double.NaN;
+		return progress;
+	}
+
+	// |alpha[i]| is bounded by Cp if y is null or y[i] = +1, by Cn otherwise
+	private static void report(SolverListener listener, SolverProgress progress, int iter,
+			double violation, int active_size, double[] alpha, byte[] y, double Cp, double Cn,
+			long start_time) {
+		progress.iter = iter;
+		progress.violation = violation;
+		progress.active_size = active_size;
+		int nr_free = 0, nr_bounded = 0;
+		for (int i = 0; i < alpha.length; i++) {
+			double a = Math.abs(alpha[i]);
+			if (a >= ((y == null || y[i] > 0) ? Cp : Cn))
+				++nr_bounded;
+			else if (a > 0)
+				++nr_free;
+		}
+		progress.nr_free = nr_free;
+		progress.nr_bounded = nr_bounded;
+		progress.seconds = (System.nanoTime() - start_time) / 1e9;
+		listener.progress(progress);
+	}
+
+	private static void finish(Solver.SolutionInfo si, int iter, boolean max_iter, boolean stopped,
+			TrainingControl control) {
+		if (stopped)
+			System.err.print("\nWARNING: training stopped by its time limit or cancel\n");
+		else if (max_iter)
+			System.err.print("\nWARNING: reaching max number of iterations\n");
+		if (max_iter || stopped)
+			SVM.info("\nduality gap = " + si.gap + "\n");
+		if (control != null)
+			control.report(si.gap, max_iter || stopped);
+		SVM.info("\noptimization finished, #iter = " + iter + "\n");
+	}
+
+	// replace the support vectors of a linear model by w, one vector per
+	// classifier, so that a decision value is a single sparse dot product;
+	// the vector of classifier (i,j) is a SV of class i with coefficient 1
+	// for j and 0 for the other classes
+	// the dual coefficients are gone afterwards, so svIndices is null: the
+	// model cannot warm start svm_train or svm_unlearn, which train from zero
+	static void compress(Model model) {
+		int nr_class = model.numClasses;
+		double[] w = new double[dimension(model.SV) + 1];
+
+		if (model.label == null) {
+			for (int k = 0; k < model.numSV; k++)
+				add(w, model.SV[k], model.svCoefficients[0][k]);
+			model.numSV = 1;
+			model.SV = new Node[][] { sparse(w) };
+			model.svCoefficients = new double[][] { { 1 } };
+			model.svIndices = null;
+			return;
+		}
+		if (nr_class < 2)
+			return;
+
+		int[] start = new int[nr_class];
+		for (int i = 1; i < nr_class; i++)
+			start[i] = start[i - 1] + model.nSV[i - 1];
+
+		int total = nr_class * (nr_class - 1) / 2;
+		Node[][] SV = new Node[total][];
+		double[][] sv_coef = new double[nr_class - 1][total];
+		int[] nSV = new int[nr_class];
+		int p = 0;
+		for (int i = 0; i < nr_class; i++)
+			for (int j = i + 1; j < nr_class; j++) {
+				Arrays.fill(w, 0);
+				for (int k = start[i]; k < start[i] + model.nSV[i]; k++)
+					add(w, model.SV[k], model.svCoefficients[j - 1][k]);
+				for (int k = start[j]; k < start[j] + model.nSV[j]; k++)
+					add(w, model.SV[k], model.svCoefficients[i][k]);
+				SV[p] = sparse(w);
+				sv_coef[j - 1][p] = 1;
+				nSV[i]++;
+				p++;
+			}
+
+		model.numSV = total;
+		model.SV = SV;
+		model.svCoefficients = sv_coef;
+		model.nSV = nSV;
+		model.svIndices = null;
+	}
+
+	// largest feature index of the rows
+	private static int dimension(Node[][] x) {
+		int n = 0;
+		for (Node[] row : x)
+			for (Node e : row)
+				n = Math.max(n, e.index);
+		return n;
+	}
+
+	private static double dot(double[] w, Node[] x) {
+		double sum = 0;
+		for (Node e : x)
+			sum += w[e.index] * e.value;
+		return sum;
+	}
+
+	private static double norm2(Node[] x) {
+		double sum = 0;
+		for (Node e : x)
+			sum += e.value * e.value;
+		return sum;
+	}
+
+	private static void add(double[] w, Node[] x, double a) {
+		for (Node e : x)
+			w[e.index] += a * e.value;
+	}
+
+	private static Node[] sparse(double[] w) {
+		int n = 0;
+		for (int k = 0; k < w.length; k++)
+			if (w[k] != 0)
+				n++;
+		Node[] x = new Node[n];
+		n = 0;
+		for (int k = 0; k < w.length; k++)
+			if (w[k] != 0) {
+				x[n] = new Node();
+				x[n].index = k;
+				x[n].value = w[k];
+				n++;
+			}
+		return x;
+	}
+}
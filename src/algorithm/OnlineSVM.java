@@ -0,0 +1,320 @@
+package algorithm;
+
+import java.util.Arrays;
+
+import algorithm.kernel.Kernel;
+import datamodel.Model;
+import datamodel.Node;
+import datamodel.Parameters;
+
+//An online SVM in Bordes et al., "Fast Kernel Classifiers with Online and
+//Active Learning", JMLR 6(2005), p. 1579--1619 (LASVM)
+//Solves, over the samples seen so far:
+//
+//	max \sum \alpha_i y_i - 0.5(\alpha^T K \alpha)
+//
+//		\sum \alpha_i = 0
+//		A_i <= \alpha_i <= B_i, A_i = min(0, C y_i), B_i = max(0, C y_i)
+//
+//with the gradient g_i = y_i - \sum_j \alpha_j K_ij kept on the current set S
+//of candidate support vectors. add() runs PROCESS on the new sample (it joins
+//S and is paired with the most violating sample of the other direction) and
+//then REPROCESS (one step on the most violating pair of S, after which
+//samples with alpha = 0 that cannot become support vectors are removed), so
+//the cost of a sample is a few kernel rows over S. finish() runs REPROCESS
+//until no pair violates by more than tau = param.eps.
+//
+//The kernel rows of S are kept in a cache of param.cacheSize MB, rows and
+//columns in the order of S. A row is extended when S has grown and the least
+//recently used rows are dropped when the cache is full.
+//
+//model() is a snapshot of the current solution: a C_SVC model for the two
+//labels seen (the first is +1) that SVM.svm_predict_values can use while
+//training goes on.
+//
+public class OnlineSVM {
+	private final Parameters param;
+	private final double C;
+	private final double tau;
+
+	// the samples of S by position
+	private int n;
+	private Node[][] x = new Node[16][];
+	private byte[] y = new byte[16];
+	private double[] alpha = new double[16];
+	private double[] g = new double[16];
+	private double[] QD = new double[16];
+
+	// kernel cache: row[p][0..row_len[p]) are K(x_p, x_q)
+	private float[][] row = new float[16][];
+	private int[] row_len = new int[16];
+	private long[] used = new long[16];
+	private long clock;
+	private long cache_bytes;
+	private final long cache_size;
+
+	private int[] label = new int[2];
+	private int nr_label;
+	private double b;
+	private double delta = Double.POSITIVE_INFINITY;
+
+	// param gives the kernel (with gamma set), C, eps and cacheSize
+	public OnlineSVM(Parameters param) {
+		this.param = (Parameters) param.clone();
+		C = param.C;
+		tau = param.eps;
+		cache_size = Math.max((long) (param.cacheSize * (1 << 20)), 1 << 20);
+	}
+
+	// train on one more sample
+	public synchronized void add(Node[] x, double y) {
+		process(x, y);
+		reprocess();
+	}
+
+	// train on a micro-batch: PROCESS on each sample, then as many REPROCESS
+	public synchronized void add(Node[][] x, double[] y) {
+		for (int k = 0; k < x.length; k++)
+			process(x[k], y[k]);
+		for (int k = 0; k < x.length; k++)
+			reprocess();
+	}
+
+	// optimize over the samples in S until no pair violates by more than tau
+	public synchronized void finish() {
+		int max_iter = Math.max(10000000, 100 * n);
+		for (int iter = 0; iter < max_iter && delta > tau; iter++)
+			reprocess();
+	}
+
+	// number of samples in S with alpha != 0
+	public synchronized int nr_sv() {
+		int nSV = 0;
+		for (int p = 0; p < n; p++)
+			if (alpha[p] != 0)
+				nSV++;
+		return nSV;
+	}
+
+	private double lower(int p) {
+		return Math.min(0, C * y[p]);
+	}
+
+	private double upper(int p) {
+		return Math.max(0, C * y[p]);
+	}
+
+	private void process(Node[] xk, double yk) {
+		int c = 0;
+		while (c < nr_label && label[c] != (int) yk)
+			c++;
+		if (c == nr_label) {
+			if (nr_label == 2)
+				throw new IllegalArgumentException("OnlineSVM: more than two classes");
+			label[nr_label++] = (int) yk;
+		}
+
+		int k = insert(xk, (c == 0) ? +1 : -1);
+		float[] Q_k = get_row(k);
+		double gk = y[k];
+		for (int s = 0; s < n; s++)
+			gk -= alpha[s] * Q_k[s];
+		g[k] = gk;
+
+		int i, j;
+		if (y[k] > 0) {
+			i = k;
+			j = argmin();
+		} else {
+			i = argmax();
+			j = k;
+		}
+		if (i != -1 && j != -1 && violating(i, j))
+			step(i, j);
+	}
+
+	private void reprocess() {
+		int i = argmax();
+		int j = argmin();
+		if (i != -1 && j != -1 && violating(i, j))
+			step(i, j);
+
+		i = argmax();
+		j = argmin();
+		if (i == -1 || j == -1) {
+			delta = 0;
+			return;
+		}
+		double g_i = g[i], g_j = g[j];
+		b = (g_i + g_j) / 2;
+		delta = g_i - g_j;
+
+		// samples that cannot enter the solution
+		for (int s = n - 1; s >= 0; s--)
+			if (alpha[s] == 0 && ((y[s] < 0 && g[s] >= g_i) || (y[s] > 0 && g[s] <= g_j)))
+				remove(s);
+	}
+
+	private boolean violating(int i, int j) {
+		return alpha[i] < upper(i) && alpha[j] > lower(j) && g[i] - g[j] > tau;
+	}
+
+	// i maximizing g with alpha_i < B_i
+	private int argmax() {
+		int i = -1;
+		for (int s = 0; s < n; s++)
+			if (alpha[s] < upper(s) && (i == -1 || g[s] > g[i]))
+				i = s;
+		return i;
+	}
+
+	// j minimizing g with alpha_j > A_j
+	private int argmin() {
+		int j = -1;
+		for (int s = 0; s < n; s++)
+			if (alpha[s] > lower(s) && (j == -1 || g[s] < g[j]))
+				j = s;
+		return j;
+	}
+
+	// direction search along e_i - e_j
+	private void step(int i, int j) {
+		float[] Q_i = get_row(i);
+		float[] Q_j = get_row(j);
+		double quad_coef = QD[i] + QD[j] - 2 * Q_i[j];
+		if (quad_coef <= 0)
+			quad_coef = 1e-12;
+		double lambda = Math.min((g[i] - g[j]) / quad_coef,
+				Math.min(upper(i) - alpha[i], alpha[j] - lower(j)));
+		alpha[i] += lambda;
+		alpha[j] -= lambda;
+		for (int s = 0; s < n; s++)
+			g[s] -= lambda * (Q_i[s] - Q_j[s]);
+	}
+
+	private int insert(Node[] xk, int yk) {
+		if (n == x.length) {
+			int size = 2 * n;
+			x = Arrays.copyOf(x, size);
+			y = Arrays.copyOf(y, size);
+			alpha = Arrays.copyOf(alpha, size);
+			g = Arrays.copyOf(g, size);
+			QD = Arrays.copyOf(QD, size);
+			row = Arrays.copyOf(row, size);
+			row_len = Arrays.copyOf(row_len, size);
+			used = Arrays.copyOf(used, size);
+		}
+		int k = n++;
+		x[k] = xk;
+		y[k] = (byte) yk;
+		alpha[k] = 0;
+		QD[k] = Kernel.k_function(xk, xk, param);
+		row[k] = null;
+		row_len[k] = 0;
+		return k;
+	}
+
+	// remove position p from S, moving the last sample there
+	private void remove(int p) {
+		int last = n - 1;
+		if (row[p] != null)
+			cache_bytes -= 4L * row[p].length;
+		if (p != last) {
+			x[p] = x[last];
+			y[p] = y[last];
+			alpha[p] = alpha[last];
+			g[p] = g[last];
+			QD[p] = QD[last];
+			row[p] = row[last];
+			row_len[p] = row_len[last];
+			used[p] = used[last];
+		}
+		x[last] = null;
+		row[last] = null;
+		row_len[last] = 0;
+		n--;
+
+		// column last moves to column p
+		for (int q = 0; q < n; q++)
+			if (row[q] != null) {
+				if (p != last) {
+					if (row_len[q] > last)
+						row[q][p] = row[q][last];
+					else if (row_len[q] > p)
+						row_len[q] = p;
+				}
+				row_len[q] = Math.min(row_len[q], n);
+			}
+	}
+
+	// K(x_p, x_q) for the q in S, computing the columns S has gained
+	private float[] get_row(int p) {
+		float[] r = row[p];
+		if (r == null || r.length < n) {
+			int size = Math.max(n, (r == null) ? 16 : 2 * r.length);
+			if (r != null)
+				cache_bytes -= 4L * r.length;
+			r = (r == null) ? new float[size] : Arrays.copyOf(r, size);
+			row[p] = r;
+			cache_bytes += 4L * size;
+		}
+		for (int q = row_len[p]; q < n; q++)
+			r[q] = (float) Kernel.k_function(x[p], x[q], param);
+		row_len[p] = n;
+		used[p] = ++clock;
+
+		while (cache_bytes > cache_size) {
+			int victim = -1;
+			for (int q = 0; q < n; q++)
+				if (q != p && row[q] != null && (victim == -1 || used[q] < used[victim]))
+					victim = q;
+			if (victim == -1)
+				break;
+			cache_bytes -= 4L * row[victim].length;
+			row[victim] = null;
+			row_len[victim] = 0;
+		}
+		return r;
+	}
+
+	// snapshot of the current solution
+	public synchronized Model model() {
+		Model model = new Model();
+		model.parameters = (Parameters) param.clone();
+		model.parameters.svmType = Parameters.C_SVC;
+		model.numClasses = Math.max(1, nr_label);
+		model.label = Arrays.copyOf(label, model.numClasses);
+		model.svIndices = null;
+		if (nr_label < 2) {
+			model.nSV = new int[model.numClasses];
+			model.numSV = 0;
+			model.SV = new Node[0][];
+			model.svCoefficients = new double[0][];
+			model.rho = new double[0];
+			return model;
+		}
+
+		// alpha_i y_i >= 0, so the sign of alpha gives the class
+		int nr_pos = 0, nr_neg = 0;
+		for (int p = 0; p < n; p++)
+			if (alpha[p] > 0)
+				nr_pos++;
+			else if (alpha[p] < 0)
+				nr_neg++;
+		model.nSV = new int[] { nr_pos, nr_neg };
+		model.numSV = nr_pos + nr_neg;
+		model.SV = new Node[model.numSV][];
+		model.svCoefficients = new double[1][model.numSV];
+		int pos = 0, neg = nr_pos;
+		for (int p = 0; p < n; p++)
+			if (alpha[p] > 0) {
+				model.SV[pos] = x[p];
+				model.svCoefficients[0][pos++] = alpha[p];
+			} else if (alpha[p] < 0) {
+				model.SV[neg] = x[p];
+				model.svCoefficients[0][neg++] = alpha[p];
+			}
+		model.rho = new double[] { -b };
+		return model;
+	}
+}
@@ -0,0 +1,65 @@
+package algorithm;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Minimal parallel loop on a shared fork-join pool. [0,n) is split into
+ * nr_chunk contiguous chunks, chunk c being [c*n/nr_chunk, (c+1)*n/nr_chunk),
+ * so the split only depends on n and nr_chunk. Reductions that merge the
+ * chunk results in chunk order are therefore deterministic.
+ */
+public final class Parallel {
+	private static ForkJoinPool pool;
+
+	public static abstract class Loop {
+		public abstract void run(int chunk, int begin, int end);
+	}
+
+	private Parallel() {
+	}
+
+	// number of threads for a parameter value, 0 meaning all processors
+	public static int nr_thread(int nr_thread) {
+		return (nr_thread > 0) ? nr_thread : Runtime.getRuntime().availableProcessors();
+	}
+
+	private static synchronized ForkJoinPool get_pool() {
+		if (pool == null)
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return pool;
+	}
+
+	public static void run(final int n, final int nr_chunk, final Loop loop) {
+		if (nr_chunk <= 1 || n <= 1) {
+			loop.run(0, 0, n);
+			return;
+		}
+
+		final RecursiveAction[] tasks = new RecursiveAction[nr_chunk];
+		for (int c = 0; c < nr_chunk; c++) {
+			final int chunk = c;
+			final int begin = (int) ((long) c * n / nr_chunk);
+			final int end = (int) ((long) (c + 1) * n / nr_chunk);
+			tasks[c] = new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					loop.run(chunk, begin, end);
+				}
+			};
+		}
+
+		if (ForkJoinTask.inForkJoinPool())
+			ForkJoinTask.invokeAll(tasks);
+		else
+			get_pool().invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+	}
+}
@@ -0,0 +1,328 @@
+package algorithm;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+import datamodel.Model;
+import datamodel.Node;
+import datamodel.Parameters;
+import datamodel.Problem;
+
+/**
+ * Linear SVM by stochastic sub-gradient descent on the primal (Shalev-Shwartz
+ * et al., "Pegasos: Primal Estimated sub-GrAdient SOlver for SVM", ICML 2007)
+ *
+ *	min lambda/2 (|w|^2 + b^2) + 1/n sum max(0, 1 - y_i (w^T x_i + b))
+ *
+ * Every step takes a mini-batch of batchSize samples, in the order they come,
+ * and moves w by the sub-gradient of the batch:
+ *
+ *	w = (1 - eta lambda) w + eta/k sum_{y_i (w^T x_i + b) < 1} y_i x_i
+ *
+ * with eta = 1/(lambda t) (PEGASOS), eta0/(1 + lambda eta0 t) (INVSCALING)
+ * or eta0 (CONSTANT) at step t. The bias b is the weight of a constant
+ * feature 1 and is regularized with w, as in LinearSolver. With
+ * averaging, the model is the average of w over all steps (averaged SGD,
+ * Xu 2011), which is less noisy than the last w.
+ *
+ * w is kept as v/alpha and the average as (u + beta v)/gamma, so the
+ * shrinking of w and the averaging cost O(1) and a step only touches the
+ * features of the batch. Memory is O(d) plus the batch: train(String) reads a
+ * file in the svm_train format once per pass and keeps nothing of it, so it
+ * works on files far larger than the memory.
+ *
+ * The result is a linear C_SVC model with w as its only SV, as from
+ * LinearSolver, for two classes; the first label seen is +1.
+ */
+public class PegasosSVM {
+	public static final int PEGASOS = 0;
+	public static final int INVSCALING = 1;
+	public static final int CONSTANT = 2;
+
+	/**
+	 * Regularization, 1/(C n) in terms of C-SVC
+	 */
+	public double lambda = 1e-4;
+
+	/**
+	 * Samples per step
+	 */
+	public int batchSize = 1;
+
+	/**
+	 * Passes over the data
+	 */
+	public int nrPass = 1;
+
+	/**
+	 * Step size schedule: PEGASOS, INVSCALING or CONSTANT
+	 */
+	public int schedule = PEGASOS;
+
+	/**
+	 * Initial step size of INVSCALING and CONSTANT
+	 */
+	public double eta0 = 0.1;
+
+	/**
+	 * Use the average of w over the steps
+	 */
+	public boolean averaging;
+
+	private static final double MAX_SCALE = 1e9;
+
+	private double[] v = new double[16]; // w = v/alpha
+	private double alpha = 1;
+	private double[] u = new double[16]; // average = (u + beta v)/gamma
+	private double beta = 0;
+	private double gamma = 1;
+	private double b;
+	private double b_avg;
+	private long t;
+
+	private int[] label = new int[2];
+	private int nr_label;
+
+	private Node[][] batch_x;
+	private double[] batch_y;
+	private boolean[] violator; // of the batch, filled by step
+	private int batch_n;
+
+	// progressive loss and errors of the current pass, each sample measured
+	// before it is trained on
+	private double loss;
+	private long nr_error;
+	private long nr_sample;
+
+	// train on a file in the svm_train format, read nrPass times
+	public Model train(String file_name) throws IOException {
+		for (int pass = 1; pass <= nrPass; pass++) {
+			BufferedReader fp = new BufferedReader(new FileReader(file_name));
+			try {
+				String line;
+				while ((line = fp.readLine()) != null) {
+					StringTokenizer st = new StringTokenizer(line, " \t\n\r\f:");
+					if (!st.hasMoreTokens())
+						continue;
+					double y = Double.parseDouble(st.nextToken());
+					int m = st.countTokens() / 2;
+					Node[] x = new Node[m];
+					for (int j = 0; j < m; j++) {
+						x[j] = new Node();
+						x[j].index = Integer.parseInt(st.nextToken());
+						x[j].value = Double.parseDouble(st.nextToken());
+					}
+					add(x, y);
+				}
+			} finally {
+				fp.close();
+			}
+			end_pass(pass);
+		}
+		return model();
+	}
+
+	// train on a problem in memory, in a new random order every pass
+	public Model train(Problem prob) {
+		int[] perm = new int[prob.l];
+		for (int i = 0; i < prob.l; i++)
+			perm[i] = i;
+		for (int pass = 1; pass <= nrPass; pass++) {
+			for (int i = 0; i < prob.l; i++) {
+				int j = i + SVM.rand.nextInt(prob.l - i);
+				do {
+					int tmp = perm[i];
+					perm[i] = perm[j];
+					perm[j] = tmp;
+				} while (false);
+			}
+			for (int i = 0; i < prob.l; i++)
+				add(prob.x[perm[i]], prob.y[perm[i]]);
+			end_pass(pass);
+		}
+		return model();
+	}
+
+	// add one sample; a step is taken when the batch is full
+	public void add(Node[] x, double y) {
+		int yi = (int) y;
+		int c = 0;
+		while (c < nr_label && label[c] != yi)
+			c++;
+		if (c == nr_label) {
+			if (nr_label == 2)
+				throw new IllegalArgumentException("PegasosSVM: more than two classes");
+			label[nr_label++] = yi;
+		}
+		double y_sign = (c == 0) ? +1 : -1;
+
+		double margin = y_sign * (dot(x) + b);
+		loss += Math.max(0, 1 - margin);
+		if (margin <= 0)
+			nr_error++;
+		nr_sample++;
+
+		if (batch_x == null || batch_x.length != batchSize) {
+			batch_x = new Node[Math.max(1, batchSize)][];
+			batch_y = new double[batch_x.length];
+			violator = new boolean[batch_x.length];
+			batch_n = 0;
+		}
+		batch_x[batch_n] = x;
+		batch_y[batch_n] = y_sign;
+		if (++batch_n == batch_x.length)
+			step();
+	}
+
+	// take the step of a partial batch and report the pass
+	private void end_pass(int pass) {
+		if (batch_n > 0)
+			step();
+		SVM.info("pass " + pass + ": " + t + " steps, loss = " + loss / Math.max(1, nr_sample)
+				+ ", error = " + (double) nr_error / Math.max(1, nr_sample) + "\n");
+		loss = 0;
+		nr_error = 0;
+		nr_sample = 0;
+	}
+
+	private double eta() {
+		switch (schedule) {
+		case INVSCALING:
+			return eta0 / (1 + lambda * eta0 * t);
+		case CONSTANT:
+			return eta0;
+		default:
+			return 1 / (lambda * t);
+		}
+	}
+
+	private void step() {
+		t++;
+		int n = batch_n;
+		double eta = eta();
+
+		// the violators, with w before the step
+		for (int k = 0; k < n; k++)
+			violator[k] = batch_y[k] * (dot(batch_x[k]) + b) < 1;
+
+		double shrink = 1 - eta * lambda;
+		if (shrink <= 0) {
+			// w is replaced by the batch term (the first PEGASOS step)
+			if (averaging)
+				for (int j = 0; j < v.length; j++)
+					u[j] += beta * v[j];
+			Arrays.fill(v, 0);
+			alpha = 1;
+			b = 0;
+		} else {
+			alpha /= shrink;
+			b *= shrink;
+		}
+
+		double coef = eta * alpha / n;
+		double sum_y = 0;
+		for (int k = 0; k < n; k++) {
+			if (!violator[k])
+				continue;
+			for (Node e : batch_x[k]) {
+				ensure(e.index);
+				double dv = coef * batch_y[k] * e.value;
+				v[e.index] += dv;
+				if (averaging)
+					u[e.index] -= beta * dv;
+			}
+			sum_y += batch_y[k];
+		}
+		b += eta * sum_y / n;
+		batch_n = 0;
+
+		if (averaging) {
+			// average = (1 - mu) average + mu w
+			double mu = 1.0 / t;
+			if (mu >= 1) {
+				Arrays.fill(u, 0);
+				gamma = 1;
+				beta = 1 / alpha;
+			} else {
+				gamma /= 1 - mu;
+				beta += mu * gamma / alpha;
+			}
+			b_avg = (1 - mu) * b_avg + mu * b;
+		}
+
+		if (alpha > MAX_SCALE) {
+			for (int j = 0; j < v.length; j++)
+				v[j] /= alpha;
+			beta *= alpha;
+			alpha = 1;
+		}
+		if (gamma > MAX_SCALE) {
+			for (int j = 0; j < u.length; j++)
+				u[j] /= gamma;
+			beta /= gamma;
+			gamma = 1;
+		}
+	}
+
+	private void ensure(int index) {
+		if (index < v.length)
+			return;
+		int n = Math.max(index + 1, 2 * v.length);
+		v = Arrays.copyOf(v, n);
+		u = Arrays.copyOf(u, n);
+	}
+
+	private double dot(Node[] x) {
+		double sum = 0;
+		for (Node e : x)
+			if (e.index < v.length)
+				sum += v[e.index] * e.value;
+		return sum / alpha;
+	}
+
+	// the model of the current w (or its average)
+	public Model model() {
+		int n = 0;
+		double[] w = new double[v.length];
+		for (int j = 0; j < v.length; j++) {
+			w[j] = averaging ? (u[j] + beta * v[j]) / gamma : v[j] / alpha;
+			if (w[j] != 0)
+				n++;
+		}
+		Node[] sv = new Node[n];
+		n = 0;
+		for (int j = 0; j < w.length; j++)
+			if (w[j] != 0) {
+				sv[n] = new Node();
+				sv[n].index = j;
+				sv[n].value = w[j];
+				n++;
+			}
+
+		Parameters param = new Parameters();
+		param.svmType = Parameters.C_SVC;
+		param.kernelType = Parameters.LINEAR;
+
+		Model model = new Model();
+		model.parameters = param;
+		model.numClasses = Math.max(1, nr_label);
+		model.label = Arrays.copyOf(label, model.numClasses);
+		if (nr_label < 2) {
+			model.nSV = new int[model.numClasses];
+			model.numSV = 0;
+			model.SV = new Node[0][];
+			model.svCoefficients = new double[0][];
+			model.rho = new double[0];
+			return model;
+		}
+		model.nSV = new int[] { 1, 0 };
+		model.numSV = 1;
+		model.SV = new Node[][] { sv };
+		model.svCoefficients = new double[][] { { 1 } };
+		model.rho = new double[] { -(averaging ? b_avg : b) };
+		return model;
+	}
+}
@@ -8,7 +8,65 @@ package algorithm;
 //the member function get_Q is for getting one column from the Q Matrix
 //
 public abstract class QMatrix {
+	private float[][] columns;
+
 	public abstract float[] get_Q(int column, int len);
 	public abstract double[] get_QD();
 	public abstract void swap_index(int i, int j);
+
+	// G[k] += coef * Q[i][k] for k in [begin,end)
+	public void add_column(int i, double coef, double[] G, int begin, int end) {
+		float[] Q_i = get_Q(i, end);
+		for (int k = begin; k < end; k++)
+			G[k] += coef * Q_i[k];
+	}
+
+	// add_column that also returns the rows it changed in rows[0,n), n < 0 if
+	// it does not know them (any row of [begin,end) may have changed)
+	public int add_column(int i, double coef, double[] G, int begin, int end, int[] rows) {
+		add_column(i, coef, G, begin, end);
+		return -1;
+	}
+
+	// Q[i][j] alone, without the rest of column i where Q can do that
+	public float get_Q_entry(int i, int j) {
+		return get_Q(i, j + 1)[j];
+	}
+
+	// columns index[0,n) over [0,len) at once, valid until the next call
+	// (the default copies them, get_Q may reuse its buffers)
+	public float[][] get_Q_columns(int[] index, int n, int len) {
+		if (columns == null || columns.length < n)
+			columns = new float[n][];
+		for (int c = 0; c < n; c++) {
+			float[] Q_c = get_Q(index[c], len);
+			if (columns[c] == null || columns[c].length < len)
+				columns[c] = new float[Q_c.length];
+			System.arraycopy(Q_c, 0, columns[c], 0, len);
+		}
+		return columns;
+	}
+
+	// whether columns are thresholded, so add_column is cheaper than a loop
+	// over get_Q
+	public boolean is_sparse() {
+		return false;
+	}
+
+	// fraction of the columns found in the kernel cache so far, NaN if the
+	// columns do not come from a Cache
+	public double cache_hit_rate() {
+		return Double.NaN;
+	}
+
+	// release what the matrix holds outside the heap (the spill file of its
+	// cache) once the solver is done with it
+	public void close() {
+	}
+
+	// switch a reduced precision cache to full precision
+	// return true if the precision has changed
+	public boolean set_full_precision() {
+		return false;
+	}
 }//Of abstract class
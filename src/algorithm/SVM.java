@@ -28,12 +28,16 @@ public class SVM {
 
 	private static PrintInterface svm_print_string = svm_print_stdout;
 
-	static void info(String s) {
+	// read by every solver run when it starts
+	static volatile SolverListener solver_listener;
+	static volatile int solver_listener_interval = 1000;
+
+	public static void info(String s) {
 		svm_print_string.print(s);
 	}
 
 	private static void solve_c_svc(Problem prob, Parameters param, double[] alpha,
-			Solver.SolutionInfo si, double Cp, double Cn) {
+			Solver.SolutionInfo si, double Cp, double Cn, double[] init, path_matrix path) {
 		int l = prob.l;
 		double[] minus_ones = new double[l];
 		byte[] y = new byte[l];
@@ -49,9 +53,15 @@ public class SVM {
 				y[i] = -1;
 		}
 
-		Solver s = new Solver();
-		s.Solve(l, new SVC_Q(prob, param, y), minus_ones, y, alpha, Cp, Cn, param.eps, si,
-				param.shrinking);
+		if (init != null) {
+			for (i = 0; i < l; i++)
+				alpha[i] = y[i] * init[i];
+			project_balanced(alpha, y, Cp, Cn);
+		}
+
+		Solver s = new Solver(param);
+		QMatrix Q = (path != null && path.Q != null) ? path.Q : new SVC_Q(prob, param, y);
+		solve(s, Q, l, minus_ones, y, alpha, Cp, Cn, param, si, path);
 
 		double sum_alpha = 0;
 		for (i = 0; i < l; i++)
@@ -65,7 +75,7 @@ public class SVM {
 	}
 
 	private static void solve_nu_svc(Problem prob, Parameters param, double[] alpha,
-			Solver.SolutionInfo si) {
+			Solver.SolutionInfo si, double[] init, path_matrix path) {
 		int i;
 		int l = prob.l;
 		double nu = param.nu;
@@ -81,23 +91,39 @@ public class SVM {
 		double sum_pos = nu * l / 2;
 		double sum_neg = nu * l / 2;
 
-		for (i = 0; i < l; i++)
-			if (y[i] == +1) {
-				alpha[i] = Math.min(1.0, sum_pos);
-				sum_pos -= alpha[i];
-			} else {
-				alpha[i] = Math.min(1.0, sum_neg);
-				sum_neg -= alpha[i];
-			}
+		if (init != null) {
+			// the model holds alpha*y/r, the sums give back the scale
+			double init_pos = 0, init_neg = 0;
+			for (i = 0; i < l; i++)
+				if (y[i] == +1)
+					init_pos += Math.abs(init[i]);
+				else
+					init_neg += Math.abs(init[i]);
+			for (i = 0; i < l; i++)
+				if (y[i] == +1)
+					alpha[i] = (init_pos > 0) ? Math.abs(init[i]) * sum_pos / init_pos : 0;
+				else
+					alpha[i] = (init_neg > 0) ? Math.abs(init[i]) * sum_neg / init_neg : 0;
+			project_class(alpha, y, +1, 1.0, sum_pos);
+			project_class(alpha, y, -1, 1.0, sum_neg);
+		} else
+			for (i = 0; i < l; i++)
+				if (y[i] == +1) {
+					alpha[i] = Math.min(1.0, sum_pos);
+					sum_pos -= alpha[i];
+				} else {
+					alpha[i] = Math.min(1.0, sum_neg);
+					sum_neg -= alpha[i];
+				}
 
 		double[] zeros = new double[l];
 
 		for (i = 0; i < l; i++)
 			zeros[i] = 0;
 
-		SolverNU s = new SolverNU();
-		s.Solve(l, new SVC_Q(prob, param, y), zeros, y, alpha, 1.0, 1.0, param.eps, si,
-				param.shrinking);
+		SolverNU s = new SolverNU(param);
+		QMatrix Q = (path != null && path.Q != null) ? path.Q : new SVC_Q(prob, param, y);
+		solve(s, Q, l, zeros, y, alpha, 1.0, 1.0, param, si, path);
 		double r = si.r;
 
 		SVM.info("C = " + 1 / r + "\n");
@@ -107,12 +133,13 @@ public class SVM {
 
 		si.rho /= r;
 		si.obj /= (r * r);
+		si.gap /= (r * r);
 		si.upper_bound_p = 1 / r;
 		si.upper_bound_n = 1 / r;
 	}
 
 	private static void solve_one_class(Problem prob, Parameters param, double[] alpha,
-			Solver.SolutionInfo si) {
+			Solver.SolutionInfo si, double[] init, path_matrix path) {
 		int l = prob.l;
 		double[] zeros = new double[l];
 		byte[] ones = new byte[l];
@@ -132,13 +159,19 @@ public class SVM {
 			ones[i] = 1;
 		}
 
-		Solver s = new Solver();
-		s.Solve(l, new ONE_CLASS_Q(prob, param), zeros, ones, alpha, 1.0, 1.0, param.eps, si,
-				param.shrinking);
+		if (init != null) {
+			for (i = 0; i < l; i++)
+				alpha[i] = init[i];
+			project_class(alpha, ones, +1, 1.0, param.nu * prob.l);
+		}
+
+		Solver s = new Solver(param);
+		QMatrix Q = (path != null && path.Q != null) ? path.Q : new ONE_CLASS_Q(prob, param);
+		solve(s, Q, l, zeros, ones, alpha, 1.0, 1.0, param, si, path);
 	}
 
 	private static void solve_epsilon_svr(Problem prob, Parameters param, double[] alpha,
-			Solver.SolutionInfo si) {
+			Solver.SolutionInfo si, double[] init, path_matrix path) {
 		int l = prob.l;
 		double[] alpha2 = new double[2 * l];
 		double[] linear_term = new double[2 * l];
@@ -155,9 +188,14 @@ public class SVM {
 			y[i + l] = -1;
 		}
 
-		Solver s = new Solver();
-		s.Solve(2 * l, new SVR_Q(prob, param), linear_term, y, alpha2, param.C, param.C, param.eps,
-				si, param.shrinking);
+		if (init != null) {
+			split_svr_alpha(init, alpha2);
+			project_balanced(alpha2, y, param.C, param.C);
+		}
+
+		Solver s = new Solver(param);
+		QMatrix Q = (path != null && path.Q != null) ? path.Q : new SVR_Q(prob, param);
+		solve(s, Q, 2 * l, linear_term, y, alpha2, param.C, param.C, param, si, path);
 
 		double sum_alpha = 0;
 		for (i = 0; i < l; i++) {
@@ -168,7 +206,7 @@ public class SVM {
 	}
 
 	private static void solve_nu_svr(Problem prob, Parameters param, double[] alpha,
-			Solver.SolutionInfo si) {
+			Solver.SolutionInfo si, double[] init, path_matrix path) {
 		int l = prob.l;
 		double C = param.C;
 		double[] alpha2 = new double[2 * l];
@@ -188,9 +226,33 @@ public class SVM {
 			y[i + l] = -1;
 		}
 
-		SolverNU s = new SolverNU();
-		s.Solve(2 * l, new SVR_Q(prob, param), linear_term, y, alpha2, C, C, param.eps, si,
-				param.shrinking);
+		if (init != null) {
+			split_svr_alpha(init, alpha2);
+			double target = C * param.nu * l / 2;
+			project_class(alpha2, y, +1, C, target);
+			project_class(alpha2, y, -1, C, target);
+
+			// raise alpha2[i] and alpha2[i+l] together where both sums are
+			// short, which keeps their difference
+			double sum_pos = 0, sum_neg = 0;
+			for (i = 0; i < l; i++) {
+				sum_pos += alpha2[i];
+				sum_neg += alpha2[i + l];
+			}
+			double short_both = Math.min(target - sum_pos, target - sum_neg);
+			for (i = 0; i < l && short_both > 0; i++) {
+				double add = Math.min(short_both, C - Math.max(alpha2[i], alpha2[i + l]));
+				alpha2[i] += add;
+				alpha2[i + l] += add;
+				short_both -= add;
+			}
+			project_class(alpha2, y, +1, C, target);
+			project_class(alpha2, y, -1, C, target);
+		}
+
+		SolverNU s = new SolverNU(param);
+		QMatrix Q = (path != null && path.Q != null) ? path.Q : new SVR_Q(prob, param);
+		solve(s, Q, 2 * l, linear_term, y, alpha2, C, C, param, si, path);
 
 		SVM.info("epsilon = " + (-si.r) + "\n");
 
@@ -198,6 +260,221 @@ public class SVM {
 			alpha[i] = alpha2[i] - alpha2[i + l];
 	}
 
+	//
+	// regularization path: one kernel matrix for several solves
+	//
+
+	// the matrix of the first solve, kept for the next ones; Solver leaves the
+	// variables of Q permuted by shrinking, perm[k] is the original index of
+	// variable k
+	static class path_matrix {
+		QMatrix Q;
+		int[] perm;
+
+		void close() {
+			if (Q != null)
+				Q.close();
+		}
+	}
+
+	// s.Solve on Q, or on path.Q in the order it was left in by the last solve
+	private static void solve(Solver s, QMatrix Q, int l, double[] p, byte[] y, double[] alpha,
+			double Cp, double Cn, Parameters param, Solver.SolutionInfo si, path_matrix path) {
+		if (path == null) {
+			try {
+				s.Solve(l, Q, p, y, alpha, Cp, Cn, param.eps, si, param.shrinking);
+			} finally {
+				Q.close();
+			}
+			return;
+		}
+		int k;
+		if (path.Q == null) {
+			path.Q = Q;
+			path.perm = new int[l];
+			for (k = 0; k < l; k++)
+				path.perm[k] = k;
+		}
+		int[] perm = path.perm;
+		double[] p_q = new double[l];
+		byte[] y_q = new byte[l];
+		double[] alpha_q = new double[l];
+		for (k = 0; k < l; k++) {
+			p_q[k] = p[perm[k]];
+			y_q[k] = y[perm[k]];
+			alpha_q[k] = alpha[perm[k]];
+		}
+
+		s.Solve(l, path.Q, p_q, y_q, alpha_q, Cp, Cn, param.eps, si, param.shrinking);
+
+		int[] new_perm = new int[l];
+		for (k = 0; k < l; k++) {
+			alpha[perm[k]] = alpha_q[k];
+			new_perm[k] = perm[s.active_set[k]];
+		}
+		path.perm = new_perm;
+	}
+
+	// starting point for the next C of a path from the coefficients prev of
+	// the last one
+	private static double[] path_alpha(double[] prev, Parameters prev_param, Parameters param) {
+		double[] alpha = new double[prev.length];
+		double scale = c_ratio(prev_param, param);
+		for (int i = 0; i < prev.length; i++)
+			alpha[i] = scale * prev[i];
+		return alpha;
+	}
+
+	// factor for coefficients bounded by C when going from param from to to,
+	// 1 for formulations whose coefficients are not
+	private static double c_ratio(Parameters from, Parameters to) {
+		if ((to.svmType == Parameters.C_SVC || to.svmType == Parameters.EPSILON_SVR
+				|| to.svmType == Parameters.NU_SVR) && from != null
+				&& from.svmType == to.svmType && from.C > 0)
+			return to.C / from.C;
+		return 1;
+	}
+
+	//
+	// warm start: feasible starting points from given coefficients
+	//
+
+	// clip alpha[t] with y[t] == sign to [0,C] and bring their sum to target
+	// changing as few of them as possible: the free ones first, then those at
+	// a bound (in index order), so a start that is nearly feasible stays
+	// close to where it was
+	// values within rounding of a bound are put on it, otherwise they would
+	// start as free variables
+	private static void project_class(double[] alpha, byte[] y, int sign, double C,
+			double target) {
+		int l = alpha.length;
+		int i;
+		double sum = 0;
+		for (i = 0; i < l; i++)
+			if (y[i] == sign) {
+				alpha[i] = Math.max(0, Math.min(C, alpha[i]));
+				sum += alpha[i];
+			}
+		for (int pass = 0; pass < 2 && sum != target; pass++)
+			for (i = 0; i < l && sum != target; i++) {
+				if (y[i] != sign)
+					continue;
+				boolean free = alpha[i] > 0 && alpha[i] < C;
+				if (free != (pass == 0))
+					continue;
+				double change = (sum > target) ? -Math.min(alpha[i], sum - target)
+						: Math.min(C - alpha[i], target - sum);
+				alpha[i] += change;
+				sum += change;
+			}
+		for (i = 0; i < l; i++)
+			if (y[i] == sign) {
+				if (alpha[i] >= C * (1 - 1e-12))
+					alpha[i] = C;
+				else if (alpha[i] <= C * 1e-12)
+					alpha[i] = 0;
+			}
+	}
+
+	// sum of alpha[t] with y[t] == sign
+	private static double class_sum(double[] alpha, byte[] y, int sign) {
+		double sum = 0;
+		for (int i = 0; i < alpha.length; i++)
+			if (y[i] == sign)
+				sum += alpha[i];
+		return sum;
+	}
+
+	// clip alpha to [0,Cp] and [0,Cn] and satisfy y^T alpha = 0: the free
+	// variables of the class with the smaller sum are raised, and whatever is
+	// left is taken off the other class by project_class
+	private static void project_balanced(double[] alpha, byte[] y, double Cp, double Cn) {
+		int l = alpha.length;
+		for (int i = 0; i < l; i++)
+			alpha[i] = Math.max(0, Math.min((y[i] == +1) ? Cp : Cn, alpha[i]));
+		double sum_pos = class_sum(alpha, y, +1);
+		double sum_neg = class_sum(alpha, y, -1);
+		int small = (sum_pos < sum_neg) ? +1 : -1;
+		double C = (small == +1) ? Cp : Cn;
+		double missing = Math.abs(sum_pos - sum_neg);
+		for (int i = 0; i < l && missing > 0; i++)
+			if (y[i] == small && alpha[i] > 0 && alpha[i] < C) {
+				double add = Math.min(C - alpha[i], missing);
+				alpha[i] += add;
+				missing -= add;
+			}
+		project_class(alpha, y, small, C, class_sum(alpha, y, small));
+		project_class(alpha, y, -small, (small == +1) ? Cn : Cp, class_sum(alpha, y, small));
+	}
+
+	// alpha2[i] - alpha2[i+l] = init[i] with one of the two 0
+	private static void split_svr_alpha(double[] init, double[] alpha2) {
+		int l = init.length;
+		for (int i = 0; i < l; i++) {
+			alpha2[i] = Math.max(init[i], 0);
+			alpha2[i + l] = Math.max(-init[i], 0);
+		}
+	}
+
+	// signed coefficients of model init for the samples of prob, taken by
+	// init.svIndices; for classification those of the classifier between
+	// label_p (+1) and label_n (-1)
+	// coefficients bounded by C are rescaled if C has changed
+	// return null if init has no indices or no such classifier
+	private static double[] warm_start_alpha(Model init, Problem prob, Parameters param,
+			int label_p, int label_n) {
+		if (init == null || init.svIndices == null)
+			return null;
+		double[] alpha = new double[prob.l];
+		int k;
+		double scale = c_ratio(init.parameters, param);
+
+		if (init.label == null) {
+			for (k = 0; k < init.numSV; k++) {
+				int t = init.svIndices[k] - 1;
+				if (t >= 0 && t < prob.l)
+					alpha[t] = scale * init.svCoefficients[0][k];
+			}
+			return alpha;
+		}
+
+		int a = -1, b = -1;
+		for (int c = 0; c < init.numClasses; c++) {
+			if (init.label[c] == label_p)
+				a = c;
+			if (init.label[c] == label_n)
+				b = c;
+		}
+		if (a == -1 || b == -1)
+			return null;
+		double sign = scale;
+		if (a > b) {
+			do {
+				int tmp = a;
+				a = b;
+				b = tmp;
+			} while (false);
+			sign = -scale;
+		}
+
+		// classifier (a,b): coefficients with a are in sv_coef[b-1],
+		// with b in sv_coef[a]
+		int start = 0;
+		for (int c = 0; c < init.numClasses; c++) {
+			for (k = start; k < start + init.nSV[c]; k++) {
+				int t = init.svIndices[k] - 1;
+				if (t < 0 || t >= prob.l)
+					continue;
+				if (c == a)
+					alpha[t] = sign * init.svCoefficients[b - 1][k];
+				else if (c == b)
+					alpha[t] = sign * init.svCoefficients[a][k];
+			}
+			start += init.nSV[c];
+		}
+		return alpha;
+	}
+
 	//
 	// decision_function
 	//
@@ -206,24 +483,33 @@ public class SVM {
 		double rho;
 	};
 
-	static decision_function svm_train_one(Problem prob, Parameters param, double Cp, double Cn) {
+	// init: signed coefficients to start from (as in the model), or null
+	// path: kernel matrix kept over the C values of a path, or null
+	static decision_function svm_train_one(Problem prob, Parameters param, double Cp, double Cn,
+			double[] init, path_matrix path) {
 		double[] alpha = new double[prob.l];
 		Solver.SolutionInfo si = new Solver.SolutionInfo();
 		switch (param.svmType) {
 		case Parameters.C_SVC:
-			solve_c_svc(prob, param, alpha, si, Cp, Cn);
+			if (LinearSolver.applies(param))
+				LinearSolver.solve_c_svc(prob, param, alpha, si, Cp, Cn, init);
+			else
+				solve_c_svc(prob, param, alpha, si, Cp, Cn, init, path);
 			break;
 		case Parameters.NU_SVC:
-			solve_nu_svc(prob, param, alpha, si);
+			solve_nu_svc(prob, param, alpha, si, init, path);
 			break;
 		case Parameters.ONE_CLASS:
-			solve_one_class(prob, param, alpha, si);
+			solve_one_class(prob, param, alpha, si, init, path);
 			break;
 		case Parameters.EPSILON_SVR:
-			solve_epsilon_svr(prob, param, alpha, si);
+			if (LinearSolver.applies(param))
+				LinearSolver.solve_epsilon_svr(prob, param, alpha, si, init);
+			else
+				solve_epsilon_svr(prob, param, alpha, si, init, path);
 			break;
 		case Parameters.NU_SVR:
-			solve_nu_svr(prob, param, alpha, si);
+			solve_nu_svr(prob, param, alpha, si, init, path);
 			break;
 		}
 
@@ -622,46 +908,212 @@ public class SVM {
 	// Interface functions
 	//
 	public static Model svm_train(Problem prob, Parameters param) {
-		Model model = new Model();
-		model.parameters = param;
+		return svm_train(prob, param, null);
+	}
 
-		if (param.svmType == Parameters.ONE_CLASS || param.svmType == Parameters.EPSILON_SVR
-				|| param.svmType == Parameters.NU_SVR) {
-			// regression or one-class-svm
-			model.numClasses = 2;
-			model.label = null;
-			model.nSV = null;
-			model.probabilitiesA = null;
-			model.probabilitiesB = null;
-			model.svCoefficients = new double[1][];
-
-			if (param.probability == 1 && (param.svmType == Parameters.EPSILON_SVR
+	// warm start from init, a model trained before on this problem or on one
+	// that only differs in some samples: its coefficients, placed by
+	// svIndices, are made feasible and the solver starts from them
+	// (a model without svIndices, e.g. loaded from a file or compressed to w
+	// by the linear solver, starts cold)
+	public static Model svm_train(Problem prob, Parameters param, Model init) {
+		return svm_train(prob, param, init, null);
+	}
+
+	// training that control can cancel from another thread; the model is
+	// built from the current solution if it is cancelled or param.timeLimit
+	// runs out, and control then holds the duality gap reached
+	public static Model svm_train(Problem prob, Parameters param, Model init,
+			TrainingControl control) {
+		TrainingControl opened = TrainingControl.open(param, control);
+		SessionCache session = SessionCache.open(prob, param);
+		try {
+			if (init != null && (init.label == null) != (param.svmType == Parameters.ONE_CLASS
+					|| param.svmType == Parameters.EPSILON_SVR
 					|| param.svmType == Parameters.NU_SVR)) {
-				model.probabilitiesA = new double[1];
-				model.probabilitiesA[0] = svm_svr_probability(prob, param);
+				SVM.info("WARNING: the initial model is of another kind, starting from zero\n");
+				init = null;
 			}
+			return svm_train_model(prob, param, init);
+		} finally {
+			if (session != null)
+				session.close();
+			if (opened != null)
+				opened.close();
+		}
+	}
 
-			decision_function f = svm_train_one(prob, param, 0, 0);
-			model.rho = new double[1];
-			model.rho[0] = f.rho;
+	// regularization path: one model for each value of C, in the given order
+	// (increasing C is the cheap direction); each solve starts from the
+	// previous solution scaled to the new box and keeps the kernel cache
+	public static Model[] svm_train_path(Problem prob, Parameters param, double[] C) {
+		Parameters[] params = new Parameters[C.length];
+		for (int c = 0; c < C.length; c++) {
+			params[c] = (Parameters) param.clone();
+			params[c].C = C[c];
+		}
+		if (C.length == 0)
+			return new Model[0];
 
-			int nSV = 0;
-			int i;
-			for (i = 0; i < prob.l; i++)
-				if (Math.abs(f.alpha[i]) > 0)
-					++nSV;
-			model.numSV = nSV;
-			model.SV = new Node[nSV][];
-			model.svCoefficients[0] = new double[nSV];
-			model.svIndices = new int[nSV];
-			int j = 0;
-			for (i = 0; i < prob.l; i++)
-				if (Math.abs(f.alpha[i]) > 0) {
-					model.SV[j] = prob.x[i];
-					model.svCoefficients[0][j] = f.alpha[i];
-					model.svIndices[j] = i + 1;
-					++j;
+		TrainingControl opened = TrainingControl.open(param, null);
+		SessionCache session = SessionCache.open(prob, param);
+		try {
+			return svm_train_models(prob, params, null);
+		} finally {
+			if (session != null)
+				session.close();
+			if (opened != null)
+				opened.close();
+		}
+	}
+
+	// prob without the samples removed (indices from 0), in the same order
+	public static Problem svm_remove_samples(Problem prob, int[] removed) {
+		boolean[] gone = removed_mask(prob, removed);
+		int[] set = new int[prob.l];
+		int n = 0;
+		for (int i = 0; i < prob.l; i++)
+			if (!gone[i])
+				set[n++] = i;
+		return CascadeSVM.subproblem(prob, Arrays.copyOf(set, n));
+	}
+
+	// decremental training: the model of svm_remove_samples(prob, removed)
+	// from model, trained on prob with param
+	// if no removed sample is a support vector of a C_SVC or EPSILON_SVR
+	// model, the solution stays optimal and only svIndices change; otherwise
+	// the solver is warm started from model with the removed coefficients
+	// zeroed, so the work is in restoring sum y_i alpha_i = 0 and the KKT
+	// conditions around them (probability outputs are always fitted again)
+	// svIndices of the result refer to the reduced problem
+	public static Model svm_unlearn(Problem prob, Parameters param, Model model, int[] removed) {
+		boolean[] gone = removed_mask(prob, removed);
+		Problem sub = svm_remove_samples(prob, removed);
+		// a linear model only keeps w (LinearSolver.compress), not the
+		// coefficients of its samples
+		if (model.svIndices == null) {
+			SVM.info("WARNING: the model has no svIndices, training from zero\n");
+			return svm_train(sub, param);
+		}
+
+		// new position of each sample, -1 if removed
+		int[] index = new int[prob.l];
+		int n = 0;
+		for (int i = 0; i < prob.l; i++)
+			index[i] = gone[i] ? -1 : n++;
+
+		Model init = new Model();
+		init.parameters = model.parameters;
+		init.numClasses = model.numClasses;
+		init.numSV = model.numSV;
+		init.SV = model.SV;
+		init.svCoefficients = model.svCoefficients;
+		init.rho = model.rho;
+		init.probabilitiesA = model.probabilitiesA;
+		init.probabilitiesB = model.probabilitiesB;
+		init.label = model.label;
+		init.nSV = model.nSV;
+		init.svIndices = new int[model.numSV];
+		boolean affected = false;
+		for (int k = 0; k < model.numSV; k++) {
+			int t = index[model.svIndices[k] - 1];
+			// warm_start_alpha skips index 0
+			init.svIndices[k] = t + 1;
+			if (t == -1)
+				affected = true;
+		}
+
+		if (!affected && param.probability == 0
+				&& (param.svmType == Parameters.C_SVC || param.svmType == Parameters.EPSILON_SVR)) {
+			// own copies, the result must not change with model
+			init.parameters = param;
+			init.SV = model.SV.clone();
+			init.svCoefficients = new double[model.svCoefficients.length][];
+			for (int k = 0; k < model.svCoefficients.length; k++)
+				init.svCoefficients[k] = model.svCoefficients[k].clone();
+			init.rho = model.rho.clone();
+			if (model.label != null)
+				init.label = model.label.clone();
+			if (model.nSV != null)
+				init.nSV = model.nSV.clone();
+			return init;
+		}
+		return svm_train(sub, param, init);
+	}
+
+	private static boolean[] removed_mask(Problem prob, int[] removed) {
+		boolean[] gone = new boolean[prob.l];
+		for (int i : removed) {
+			if (i < 0 || i >= prob.l)
+				throw new IllegalArgumentException("no sample " + i + " in the problem");
+			gone[i] = true;
+		}
+		return gone;
+	}
+
+	private static Model svm_train_model(Problem prob, Parameters param, Model init) {
+		return svm_train_models(prob, new Parameters[] { param }, init)[0];
+	}
+
+	// train the models for params, which only differ in C, in that order
+	// every model is started from the previous one and each sub-problem keeps
+	// its kernel matrix over all of them
+	private static Model[] svm_train_models(Problem prob, Parameters[] params, Model init) {
+		int nr_model = params.length;
+		Model[] models = new Model[nr_model];
+
+		if (params[0].svmType == Parameters.ONE_CLASS || params[0].svmType == Parameters.EPSILON_SVR
+				|| params[0].svmType == Parameters.NU_SVR) {
+			// regression or one-class-svm
+			path_matrix path = (nr_model > 1) ? new path_matrix() : null;
+			double[] prev = null;
+			for (int c = 0; c < nr_model; c++) {
+				Parameters param = params[c];
+				Model model = new Model();
+				models[c] = model;
+				model.parameters = param;
+				model.numClasses = 2;
+				model.label = null;
+				model.nSV = null;
+				model.probabilitiesA = null;
+				model.probabilitiesB = null;
+				model.svCoefficients = new double[1][];
+
+				if (param.probability == 1 && (param.svmType == Parameters.EPSILON_SVR
+						|| param.svmType == Parameters.NU_SVR)) {
+					model.probabilitiesA = new double[1];
+					model.probabilitiesA[0] = svm_svr_probability(prob, param);
 				}
+
+				double[] w = (c == 0) ? warm_start_alpha(init, prob, param, 0, 0)
+						: path_alpha(prev, params[c - 1], param);
+				decision_function f = svm_train_one(prob, param, 0, 0, w, path);
+				prev = f.alpha;
+				model.rho = new double[1];
+				model.rho[0] = f.rho;
+
+				int nSV = 0;
+				int i;
+				for (i = 0; i < prob.l; i++)
+					if (Math.abs(f.alpha[i]) > 0)
+						++nSV;
+				model.numSV = nSV;
+				model.SV = new Node[nSV][];
+				model.svCoefficients[0] = new double[nSV];
+				model.svIndices = new int[nSV];
+				int j = 0;
+				for (i = 0; i < prob.l; i++)
+					if (Math.abs(f.alpha[i]) > 0) {
+						model.SV[j] = prob.x[i];
+						model.svCoefficients[0][j] = f.alpha[i];
+						model.svIndices[j] = i + 1;
+						++j;
+					}
+				if (LinearSolver.applies(param))
+					LinearSolver.compress(model);
+			}
+			if (path != null)
+				path.close();
 		} else {
 			// classification
 			int l = prob.l;
@@ -688,33 +1140,36 @@ public class SVM {
 
 			// calculate weighted C
 
-			double[] weighted_C = new double[nr_class];
-			for (i = 0; i < nr_class; i++)
-				weighted_C[i] = param.C;
-			for (i = 0; i < param.nrWeight; i++) {
-				int j;
-				for (j = 0; j < nr_class; j++)
-					if (param.weightLabel[i] == label[j])
-						break;
-				if (j == nr_class)
-					System.err.print("WARNING: class label " + param.weightLabel[i]
-							+ " specified in weight is not found\n");
-				else
-					weighted_C[j] *= param.weight[i];
+			double[][] weighted_C = new double[nr_model][nr_class];
+			for (int c = 0; c < nr_model; c++) {
+				Parameters param = params[c];
+				for (i = 0; i < nr_class; i++)
+					weighted_C[c][i] = param.C;
+				for (i = 0; i < param.nrWeight; i++) {
+					int j;
+					for (j = 0; j < nr_class; j++)
+						if (param.weightLabel[i] == label[j])
+							break;
+					if (j == nr_class) {
+						if (c == 0)
+							System.err.print("WARNING: class label " + param.weightLabel[i]
+									+ " specified in weight is not found\n");
+					} else
+						weighted_C[c][j] *= param.weight[i];
+				}
 			}
 
 			// train k*(k-1)/2 models
 
-			boolean[] nonzero = new boolean[l];
-			for (i = 0; i < l; i++)
-				nonzero[i] = false;
-			decision_function[] f = new decision_function[nr_class * (nr_class - 1) / 2];
+			boolean[][] nonzero = new boolean[nr_model][l];
+			decision_function[][] f = new decision_function[nr_model][nr_class * (nr_class - 1) / 2];
 
-			double[] probA = null, probB = null;
-			if (param.probability == 1) {
-				probA = new double[nr_class * (nr_class - 1) / 2];
-				probB = new double[nr_class * (nr_class - 1) / 2];
-			}
+			double[][] probA = new double[nr_model][], probB = new double[nr_model][];
+			for (int c = 0; c < nr_model; c++)
+				if (params[c].probability == 1) {
+					probA[c] = new double[nr_class * (nr_class - 1) / 2];
+					probB[c] = new double[nr_class * (nr_class - 1) / 2];
+				}
 
 			int p = 0;
 			for (i = 0; i < nr_class; i++)
@@ -735,113 +1190,163 @@ public class SVM {
 						sub_prob.y[ci + k] = -1;
 					}
 
-					if (param.probability == 1) {
-						double[] probAB = new double[2];
-						svm_binary_svc_probability(sub_prob, param, weighted_C[i], weighted_C[j],
-								probAB);
-						probA[p] = probAB[0];
-						probB[p] = probAB[1];
-					}
+					// one pair over all C values keeps a single kernel matrix
+					path_matrix path = (nr_model > 1) ? new path_matrix() : null;
+					for (int c = 0; c < nr_model; c++) {
+						Parameters param = params[c];
+						if (param.probability == 1) {
+							double[] probAB = new double[2];
+							svm_binary_svc_probability(sub_prob, param, weighted_C[c][i],
+									weighted_C[c][j], probAB);
+							probA[c][p] = probAB[0];
+							probB[c][p] = probAB[1];
+						}
 
-					f[p] = svm_train_one(sub_prob, param, weighted_C[i], weighted_C[j]);
-					for (k = 0; k < ci; k++)
-						if (!nonzero[si + k] && Math.abs(f[p].alpha[k]) > 0)
-							nonzero[si + k] = true;
-					for (k = 0; k < cj; k++)
-						if (!nonzero[sj + k] && Math.abs(f[p].alpha[ci + k]) > 0)
-							nonzero[sj + k] = true;
+						double[] sub_init = null;
+						if (c > 0)
+							sub_init = path_alpha(f[c - 1][p].alpha, params[c - 1], param);
+						else {
+							double[] w = warm_start_alpha(init, prob, param, label[i], label[j]);
+							if (w != null) {
+								sub_init = new double[sub_prob.l];
+								for (k = 0; k < ci; k++)
+									sub_init[k] = w[perm[si + k]];
+								for (k = 0; k < cj; k++)
+									sub_init[ci + k] = w[perm[sj + k]];
+							}
+						}
+
+						f[c][p] = svm_train_one(sub_prob, param, weighted_C[c][i], weighted_C[c][j],
+								sub_init, path);
+						for (k = 0; k < ci; k++)
+							if (!nonzero[c][si + k] && Math.abs(f[c][p].alpha[k]) > 0)
+								nonzero[c][si + k] = true;
+						for (k = 0; k < cj; k++)
+							if (!nonzero[c][sj + k] && Math.abs(f[c][p].alpha[ci + k]) > 0)
+								nonzero[c][sj + k] = true;
+					}
+					if (path != null)
+						path.close();
 					++p;
 				}
 
 			// build output
 
-			model.numClasses = nr_class;
-
-			model.label = new int[nr_class];
-			for (i = 0; i < nr_class; i++)
-				model.label[i] = label[i];
-
-			model.rho = new double[nr_class * (nr_class - 1) / 2];
-			for (i = 0; i < nr_class * (nr_class - 1) / 2; i++)
-				model.rho[i] = f[i].rho;
-
-			if (param.probability == 1) {
-				model.probabilitiesA = new double[nr_class * (nr_class - 1) / 2];
-				model.probabilitiesB = new double[nr_class * (nr_class - 1) / 2];
-				for (i = 0; i < nr_class * (nr_class - 1) / 2; i++) {
-					model.probabilitiesA[i] = probA[i];
-					model.probabilitiesB[i] = probB[i];
-				}
-			} else {
-				model.probabilitiesA = null;
-				model.probabilitiesB = null;
-			}
-
-			int total_sv = 0;
-			int[] nz_count = new int[nr_class];
-			model.nSV = new int[nr_class];
-			for (i = 0; i < nr_class; i++) {
-				int nSV = 0;
-				for (int j = 0; j < count[i]; j++)
-					if (nonzero[start[i] + j]) {
-						++nSV;
-						++total_sv;
+			for (int c = 0; c < nr_model; c++) {
+				Parameters param = params[c];
+				Model model = new Model();
+				models[c] = model;
+				model.parameters = param;
+				model.numClasses = nr_class;
+
+				model.label = new int[nr_class];
+				for (i = 0; i < nr_class; i++)
+					model.label[i] = label[i];
+
+				model.rho = new double[nr_class * (nr_class - 1) / 2];
+				for (i = 0; i < nr_class * (nr_class - 1) / 2; i++)
+					model.rho[i] = f[c][i].rho;
+
+				if (param.probability == 1) {
+					model.probabilitiesA = new double[nr_class * (nr_class - 1) / 2];
+					model.probabilitiesB = new double[nr_class * (nr_class - 1) / 2];
+					for (i = 0; i < nr_class * (nr_class - 1) / 2; i++) {
+						model.probabilitiesA[i] = probA[c][i];
+						model.probabilitiesB[i] = probB[c][i];
 					}
-				model.nSV[i] = nSV;
-				nz_count[i] = nSV;
-			}
-
-			SVM.info("Total nSV = " + total_sv + "\n");
-
-			model.numSV = total_sv;
-			model.SV = new Node[total_sv][];
-			model.svIndices = new int[total_sv];
-			p = 0;
-			for (i = 0; i < l; i++)
-				if (nonzero[i]) {
-					model.SV[p] = x[i];
-					model.svIndices[p++] = perm[i] + 1;
+				} else {
+					model.probabilitiesA = null;
+					model.probabilitiesB = null;
 				}
 
-			int[] nz_start = new int[nr_class];
-			nz_start[0] = 0;
-			for (i = 1; i < nr_class; i++)
-				nz_start[i] = nz_start[i - 1] + nz_count[i - 1];
-
-			model.svCoefficients = new double[nr_class - 1][];
-			for (i = 0; i < nr_class - 1; i++)
-				model.svCoefficients[i] = new double[total_sv];
+				int total_sv = 0;
+				int[] nz_count = new int[nr_class];
+				model.nSV = new int[nr_class];
+				for (i = 0; i < nr_class; i++) {
+					int nSV = 0;
+					for (int j = 0; j < count[i]; j++)
+						if (nonzero[c][start[i] + j]) {
+							++nSV;
+							++total_sv;
+						}
+					model.nSV[i] = nSV;
+					nz_count[i] = nSV;
+				}
 
-			p = 0;
-			for (i = 0; i < nr_class; i++)
-				for (int j = i + 1; j < nr_class; j++) {
-					// classifier (i,j): coefficients with
-					// i are in sv_coef[j-1][nz_start[i]...],
-					// j are in sv_coef[i][nz_start[j]...]
+				SVM.info("Total nSV = " + total_sv + "\n");
 
-					int si = start[i];
-					int sj = start[j];
-					int ci = count[i];
-					int cj = count[j];
+				model.numSV = total_sv;
+				model.SV = new Node[total_sv][];
+				model.svIndices = new int[total_sv];
+				p = 0;
+				for (i = 0; i < l; i++)
+					if (nonzero[c][i]) {
+						model.SV[p] = x[i];
+						model.svIndices[p++] = perm[i] + 1;
+					}
 
-					int q = nz_start[i];
-					int k;
-					for (k = 0; k < ci; k++)
-						if (nonzero[si + k])
-							model.svCoefficients[j - 1][q++] = f[p].alpha[k];
-					q = nz_start[j];
-					for (k = 0; k < cj; k++)
-						if (nonzero[sj + k])
-							model.svCoefficients[i][q++] = f[p].alpha[ci + k];
-					++p;
-				}
+				int[] nz_start = new int[nr_class];
+				nz_start[0] = 0;
+				for (i = 1; i < nr_class; i++)
+					nz_start[i] = nz_start[i - 1] + nz_count[i - 1];
+
+				model.svCoefficients = new double[nr_class - 1][];
+				for (i = 0; i < nr_class - 1; i++)
+					model.svCoefficients[i] = new double[total_sv];
+
+				p = 0;
+				for (i = 0; i < nr_class; i++)
+					for (int j = i + 1; j < nr_class; j++) {
+						// classifier (i,j): coefficients with
+						// i are in sv_coef[j-1][nz_start[i]...],
+						// j are in sv_coef[i][nz_start[j]...]
+
+						int si = start[i];
+						int sj = start[j];
+						int ci = count[i];
+						int cj = count[j];
+
+						int q = nz_start[i];
+						int k;
+						for (k = 0; k < ci; k++)
+							if (nonzero[c][si + k])
+								model.svCoefficients[j - 1][q++] = f[c][p].alpha[k];
+						q = nz_start[j];
+						for (k = 0; k < cj; k++)
+							if (nonzero[c][sj + k])
+								model.svCoefficients[i][q++] = f[c][p].alpha[ci + k];
+						++p;
+					}
+				if (LinearSolver.applies(param))
+					LinearSolver.compress(model);
+			}
 		}
-		return model;
+		return models;
 	}
 
 	// Stratified cross validation
 	public static void svm_cross_validation(Problem prob, Parameters param, int nr_fold,
 			double[] target) {
+		svm_cross_validation(prob, param, nr_fold, target, null);
+	}
+
+	// with a time limit and cancel over all folds, see svm_train
+	public static void svm_cross_validation(Problem prob, Parameters param, int nr_fold,
+			double[] target, TrainingControl control) {
+		TrainingControl opened = TrainingControl.open(param, control);
+		SessionCache session = SessionCache.open(prob, param);
+		try {
+			svm_cross_validation_folds(prob, param, nr_fold, target);
+		} finally {
+			if (session != null)
+				session.close();
+			if (opened != null)
+				opened.close();
+		}
+	}
+
+	private static void svm_cross_validation_folds(Problem prob, Parameters param, int nr_fold,
+			double[] target) {
 		int i;
 		int[] fold_start = new int[nr_fold + 1];
 		int l = prob.l;
@@ -1373,8 +1878,59 @@ public class SVM {
 			if (param.p < 0)
 				return "p < 0";
 
-		if (param.shrinking != 0 && param.shrinking != 1)
-			return "shrinking != 0 and shrinking != 1";
+		if (param.shrinking != 0 && param.shrinking != 1 && param.shrinking != 2)
+			return "shrinking != 0, 1 and 2";
+
+		if (param.sessionCacheSize < 0)
+			return "session_cache_size < 0";
+
+		if (param.spillSize < 0)
+			return "spill_size < 0";
+
+		if (param.sparseEpsilon < 0)
+			return "sparse_epsilon < 0";
+
+		if (param.fullKernel != -1 && param.fullKernel != 0 && param.fullKernel != 1)
+			return "full_kernel != -1, 0 and 1";
+
+		if (param.nrThreads < 0)
+			return "nr_threads < 0";
+
+		if (param.nrCandidate < 0)
+			return "nr_candidate < 0";
+
+		if (param.nrPair < 0)
+			return "nr_pair < 0";
+
+		if (param.workingSetSize < 0)
+			return "working_set_size < 0";
+
+		if (param.workingSetSize > 2 && param.nrPair > 1)
+			return "working_set_size > 2 together with nr_pair > 1";
+
+		if (param.maxIterations < 0)
+			return "max_iterations < 0";
+
+		if (param.timeLimit < 0)
+			return "time_limit < 0";
+
+		if (param.compactSolver != 0 && param.compactSolver != 1)
+			return "compact_solver != 0 and compact_solver != 1";
+
+		if (param.linearSolver != 0 && param.linearSolver != 1)
+			return "linear_solver != 0 and linear_solver != 1";
+
+		if (param.checkpointInterval < 0)
+			return "checkpoint_interval < 0";
+
+		if (param.resume != 0 && param.resume != 1)
+			return "resume != 0 and resume != 1";
+
+		if (param.resume == 1 && param.checkpointDir == null)
+			return "resume without a checkpoint directory";
+
+		if (param.halfCache != 0 && param.halfCache != 1)
+			return "half_cache != 0 and half_cache != 1";
 
 		if (param.probability != 0 && param.probability != 1)
 			return "probability != 0 and probability != 1";
@@ -1443,6 +1999,20 @@ public class SVM {
 			return 0;
 	}
 
+	// remove the checkpoints written for param.checkpointDir, e.g. once the
+	// model has been saved
+	public static void svm_delete_checkpoints(Parameters param) {
+		if (param.checkpointDir != null)
+			Checkpoint.delete_all(param.checkpointDir);
+	}
+
+	// report the progress of every solver run to listener each interval
+	// iterations and at its end (null to remove, which is the default)
+	public static void svm_set_solver_listener(SolverListener listener, int interval) {
+		solver_listener_interval = Math.max(1, interval);
+		solver_listener = listener;
+	}
+
 	public static void svm_set_print_string_function(PrintInterface print_func) {
 		if (print_func == null)
 			svm_print_string = svm_print_stdout;
@@ -0,0 +1,128 @@
+package algorithm;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import datamodel.Node;
+import datamodel.Parameters;
+import datamodel.Problem;
+
+/**
+ * Kernel values shared by all sub-problems of one training session: the
+ * one-vs-one pairs of svm_train, the folds of svm_cross_validation and the
+ * internal folds of the probability estimates. Entries are keyed by the index
+ * of the sample in the problem the session was opened with. Sub-problems only
+ * hold references to the original Node[] rows, so the index is found by
+ * identity.
+ *
+ * Rows of K are allocated on first use until size is exhausted; later rows are
+ * not cached (there is no eviction). The diagonal is never stored so QD keeps
+ * its double precision.
+ *
+ * The cache may be used from several threads. Rows are published through an
+ * AtomicReferenceArray and single float entries are written without locking:
+ * a racing reader sees either NaN (not cached) or the final value.
+ */
+public class SessionCache {
+	private static final ThreadLocal<SessionCache> current = new ThreadLocal<SessionCache>();
+
+	private final int n;
+	private final IdentityHashMap<Node[], Integer> index;
+	private final AtomicReferenceArray<float[]> rows;
+	private final AtomicLong size; // in floats
+
+	// kernel parameters the cached values were computed with
+	private final int kernel_type;
+	private final int degree;
+	private final double gamma;
+	private final double coef0;
+
+	private SessionCache(Problem prob, Parameters param) {
+		n = prob.l;
+		index = new IdentityHashMap<Node[], Integer>(2 * n);
+		for (int i = 0; i < n; i++)
+			if (!index.containsKey(prob.x[i]))
+				index.put(prob.x[i], i);
+		rows = new AtomicReferenceArray<float[]>(n);
+		size = new AtomicLong((long) (param.sessionCacheSize * (1 << 20)) / 4);
+		kernel_type = param.kernelType;
+		degree = param.degree;
+		gamma = param.gamma;
+		coef0 = param.coef0;
+	}
+
+	// start a session on the current thread
+	// return null if sessions are disabled or one is already active, so
+	// nested trainings reuse the outer session
+	public static SessionCache open(Problem prob, Parameters param) {
+		if (param.sessionCacheSize <= 0 || current.get() != null)
+			return null;
+		SessionCache s = new SessionCache(prob, param);
+		current.set(s);
+		return s;
+	}
+
+	// make an open session visible to a worker thread (null to detach)
+	public static void attach(SessionCache s) {
+		if (s == null)
+			current.remove();
+		else
+			current.set(s);
+	}
+
+	public static SessionCache current() {
+		return current.get();
+	}
+
+	public void close() {
+		if (current.get() == this)
+			current.remove();
+	}
+
+	// whether values computed with param can be shared with this session
+	public boolean accepts(Parameters param) {
+		return param.kernelType == kernel_type && param.degree == degree
+				&& param.gamma == gamma && param.coef0 == coef0;
+	}
+
+	// return the session index of a sample row, -1 if it is not in the session
+	public int index_of(Node[] x) {
+		Integer i = index.get(x);
+		return (i == null) ? -1 : i.intValue();
+	}
+
+	// return K(a,b), or NaN if it has not been computed yet
+	public float get(int a, int b) {
+		float[] row = rows.get(a);
+		if (row != null && !Float.isNaN(row[b]))
+			return row[b];
+		row = rows.get(b);
+		if (row != null)
+			return row[a];
+		return Float.NaN;
+	}
+
+	public void put(int a, int b, float value) {
+		float[] row = rows.get(a);
+		if (row == null) {
+			row = rows.get(b);
+			if (row != null) {
+				row[a] = value;
+				return;
+			}
+			if (size.addAndGet(-n) < 0) {
+				size.addAndGet(n);
+				return;
+			}
+			row = new float[n];
+			Arrays.fill(row, Float.NaN);
+			if (!rows.compareAndSet(a, null, row)) {
+				size.addAndGet(n);
+				row = rows.get(a);
+			}
+		}
+		row[b] = value;
+	}
+}
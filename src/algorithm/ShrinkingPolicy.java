@@ -0,0 +1,59 @@
+package algorithm;
+
+/**
+ * Adaptive shrinking (-h 2): how often Solver shrinks and how far a bounded
+ * variable has to be beyond the maximal violation to be removed, tuned from
+ * what shrinking has saved and what its reconstructions have cost.
+ *
+ * Both are counted in entries of Q and G: an iteration on active_size of l
+ * variables saves about 2*(l-active_size) of them, a reconstruction of the
+ * gradient computes the entries between the shrunk and the free variables.
+ * A reconstruction after which the active set is not optimal means variables
+ * were shrunk too early; shrinking then becomes rarer and less aggressive.
+ * Cheap reconstructions make it more frequent again, and it is turned off
+ * once reconstructions have cost more than shrinking has saved.
+ */
+class ShrinkingPolicy {
+	private static final double MAX_MARGIN = 1;
+
+	private final int base_interval;
+	int interval; // iterations between do_shrinking calls
+	double margin; // fraction of the maximal violation added to the thresholds
+	boolean enabled = true;
+
+	private long saving;
+	private long cost;
+
+	ShrinkingPolicy(int l) {
+		base_interval = Math.min(l, 1000);
+		interval = base_interval;
+	}
+
+	void iteration(int l, int active_size) {
+		saving += 2L * (l - active_size);
+	}
+
+	// a do_shrinking scan over active_size variables
+	void scanned(int active_size) {
+		cost += active_size;
+	}
+
+	// a reconstruction of the gradient computing entries values of Q
+	void reconstructed(long entries) {
+		cost += entries;
+		if (cost > saving) {
+			if (enabled)
+				SVM.info("\nshrinking turned off\n");
+			enabled = false;
+		} else if (4 * entries < saving) {
+			interval = Math.max(interval / 2, Math.max(1, base_interval / 4));
+			margin /= 2;
+		}
+	}
+
+	// the full set was not optimal after a reconstruction
+	void missed() {
+		interval = Math.min(2 * interval, 16 * base_interval);
+		margin = Math.min(MAX_MARGIN, Math.max(2 * margin, 0.1));
+	}
+}
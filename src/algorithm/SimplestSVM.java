@@ -16,9 +16,10 @@ import weka.core.Instances;
  * Southwest Petroleum University, Chengdu 610500, China.<br>
  * Project: The Bayes project.
  * <p>
- * Progress: The very beginning.<br>
+ * Progress: The very beginning. The data are copied into primitive arrays
+ * and cost and gradient are computed in one parallel pass.<br>
  * Written time: April 4, 2020. <br>
- * Last modify time: April 4, 2020.
+ * Last modify time: October 19, 2026.
  */
 
 public class SimplestSVM {
@@ -83,6 +84,35 @@ public class SimplestSVM {
 	 */
 	double[] yp;
 
+	/**
+	 * The conditions of each instance, copied from data once. The last column
+	 * is 1 for b.
+	 */
+	double[][] x;
+
+	/**
+	 * The labels, -1 or 1.
+	 */
+	double[] y;
+
+	/**
+	 * The number of threads for computeCostGradient, 0 for all processors.
+	 */
+	int numThreads = 0;
+
+	/**
+	 * The cost and gradient of each chunk of instances, summed in chunk order
+	 * so that the result does not depend on the threads.
+	 */
+	double[] chunkCosts;
+	double[][] chunkGradients;
+
+	/**
+	 * Rounds done by the last train() and their rate.
+	 */
+	int rounds;
+	double epochsPerSecond;
+
 	/**
 	 ********************
 	 * The constructor.
@@ -117,6 +147,18 @@ public class SimplestSVM {
 			} // Of if
 		} // Of for i
 
+		// Copy into primitive arrays.
+		x = new double[numInstances][numConditions + 1];
+		y = new double[numInstances];
+		for (int i = 0; i < numInstances; i++) {
+			Instance tempInstance = data.instance(i);
+			for (int j = 0; j < numConditions; j++) {
+				x[i][j] = tempInstance.value(j);
+			} // Of for j
+			x[i][numConditions] = 1;
+			y[i] = tempInstance.classValue();
+		} // Of for i
+
 		w = new double[numConditions + 1];
 		gradient = new double[numConditions + 1];
 		cost = 0;
@@ -127,54 +169,58 @@ public class SimplestSVM {
 	 ********************
 	 * Compute cost and gradient.
 	 * See https://zhuanlan.zhihu.com/p/31886934.
+	 * One pass over the instances computes yp, the hinge loss and its
+	 * gradient together. The instances are split into chunks for the threads.
 	 ********************
 	 */
 	public void computeCostGradient() {
-		cost = 0;
-		double tempActualLabel, tempValue;
+		// Small data are not worth the threads.
+		int tempNumChunks = Parallel.nr_thread(numThreads);
+		if ((long) numInstances * (numConditions + 1) < (1 << 15)) {
+			tempNumChunks = 1;
+		} // Of if
+		tempNumChunks = Math.max(1, Math.min(tempNumChunks, numInstances));
+		if (chunkGradients == null || chunkGradients.length != tempNumChunks) {
+			chunkCosts = new double[tempNumChunks];
+			chunkGradients = new double[tempNumChunks][numConditions + 1];
+		} // Of if
 
-		//Step 1. Compute cost.
-		for (int i = 0; i < numInstances; i++) {
-			yp[i] = innerProduct(data.instance(i), w);
-			tempActualLabel = data.instance(i).classValue();
-
-			//xi_i = \max(0, 1 - y_i(w x_i + b))
-			tempValue = 1 - tempActualLabel * yp[i];
-			if (tempValue > 0) {
-				//Less than the margin.
-				cost += tempValue;
-			} // Of if
-		} // Of for i
+		Parallel.run(numInstances, tempNumChunks, new Parallel.Loop() {
+			public void run(int paraChunk, int paraBegin, int paraEnd) {
+				double tempCost = 0;
+				double[] tempGradient = chunkGradients[paraChunk];
+				Arrays.fill(tempGradient, 0);
+
+				for (int i = paraBegin; i < paraEnd; i++) {
+					double[] tempRow = x[i];
+					yp[i] = innerProduct(tempRow, w);
+
+					//xi_i = \max(0, 1 - y_i(w x_i + b))
+					double tempValue = 1 - y[i] * yp[i];
+					if (tempValue > 0) {
+						//Less than the margin.
+						tempCost += tempValue;
+						for (int j = 0; j < tempRow.length; j++) {
+							tempGradient[j] -= y[i] * tempRow[j];
+						} // Of for j
+					} // Of if
+				} // Of for i
+				chunkCosts[paraChunk] = tempCost;
+			}// Of run
+		});
 
+		cost = 0;
 		for (int i = 0; i < numConditions + 1; i++) {
 			cost += 0.5 * lambda * w[i] * w[i];
+			gradient[i] = lambda * w[i];
 		} // Of for i
 
-		//Step 2. Compute gradient
-		// For conditions.
-		for (int i = 0; i < numConditions + 1; i++) {
-			gradient[i] = Math.abs(lambda * w[i]);
-
-			for (int j = 0; j < numInstances; j++) {
-				tempActualLabel = data.instance(j).classValue();
-				tempValue = 1 - tempActualLabel * yp[j];
-				if (tempValue > 0) {
-					gradient[i] -= tempActualLabel * data.instance(j).value(i);
-				} // Of if
-			} // Of for j
-		} // Of for i
-
-		// For offset b.
-		gradient[numConditions] = Math.abs(lambda * w[numConditions]);
-		for (int j = 0; j < numInstances; j++) {
-			tempActualLabel = data.instance(j).classValue();
-
-			tempValue = 1 - tempActualLabel * yp[j];
-			if (tempValue > 0) {
-				gradient[numConditions] -= tempActualLabel
-						* data.instance(j).value(numConditions);
-			} // Of if
-		} // Of for j
+		for (int c = 0; c < tempNumChunks; c++) {
+			cost += chunkCosts[c];
+			for (int i = 0; i < numConditions + 1; i++) {
+				gradient[i] += chunkGradients[c][i];
+			} // Of for i
+		} // Of for c
 	}// Of computeCostGradient
 
 	/**
@@ -199,9 +245,11 @@ public class SimplestSVM {
 	public void train(double paraLambda, int paraRounds) {
 		lambda = paraLambda;
 
+		long tempStartTime = System.nanoTime();
+		rounds = 0;
 		for (int i = 0; i < paraRounds; i++) {
 			computeCostGradient();
-			System.out.println("Cost = " + cost + ", w = " + Arrays.toString(w));
+			rounds++;
 
 			if (cost < threshold) {
 				break;
@@ -209,6 +257,12 @@ public class SimplestSVM {
 
 			update();
 		} // Of for i
+		double tempSeconds = (System.nanoTime() - tempStartTime) / 1e9;
+		epochsPerSecond = rounds / Math.max(tempSeconds, 1e-9);
+
+		System.out.println("Rounds = " + rounds + ", cost = " + cost + ", w = "
+				+ Arrays.toString(w));
+		System.out.println("Epochs per second: " + epochsPerSecond);
 	}// Of train
 
 	/**
@@ -219,10 +273,8 @@ public class SimplestSVM {
 	public void classify() {
 		predicts = new int[numInstances];
 		for (int i = 0; i < numInstances; i++) {
-			predicts[i] = classify(data.instance(i));
+			predicts[i] = (innerProduct(x[i], w) < 0) ? -1 : 1;
 		} // Of for i
-
-		System.out.println("Predicts = " + Arrays.toString(predicts));
 	}// Of classify
 
 	/**
@@ -233,7 +285,6 @@ public class SimplestSVM {
 	public int classify(Instance paraInstance) {
 		double tempResult = innerProduct(paraInstance, w);
 
-		System.out.println("y' = " + tempResult);
 		if (tempResult < 0) {
 			return -1;
 		} // Of if
@@ -276,15 +327,15 @@ public class SimplestSVM {
 	 ********************
 	 */
 	public double innerProduct(Instance paraInstance, double[] paraVector2) {
-		double[] tempArray = new double[numConditions + 1];
-		for (int i = 0; i < tempArray.length; i++) {
-			tempArray[i] = paraInstance.value(i);
+		double resultValue = 0;
+		for (int i = 0; i < numConditions; i++) {
+			resultValue += paraInstance.value(i) * paraVector2[i];
 		} // Of for i
 
 		// Handle b.
-		tempArray[numConditions] = 1;
+		resultValue += paraVector2[numConditions];
 
-		return innerProduct(tempArray, paraVector2);
+		return resultValue;
 	}// Of innerProduct
 
 	/**
@@ -295,7 +346,7 @@ public class SimplestSVM {
 	public double computeAccuracy() {
 		double tempCorrect = 0;
 		for (int i = 0; i < numInstances; i++) {
-			if (predicts[i] == (int) data.instance(i).classValue()) {
+			if (predicts[i] == (int) y[i]) {
 				tempCorrect++;
 			} // Of if
 		} // Of for i
@@ -311,17 +362,18 @@ public class SimplestSVM {
 	 */
 	public static void testSVM() {
 		System.out.println("Hello, SVM. Now test linear separation.");
-		String tempFilename = "src/data/iris.arff";
-		// String tempFilename = "src/data/r15.arff";
-		// String tempFilename = "src/data/banana.arff";
-		// String tempFilename = "src/data/wdbc_norm_ex.arff";
+		String[] tempFilenames = { "src/data/iris.arff", "src/data/wdbc_norm_ex.arff" };
+		// "src/data/r15.arff", "src/data/banana.arff"
 
-		SimplestSVM tempLearner = new SimplestSVM(tempFilename);
-		tempLearner.train(0.0001, 100000);
+		for (String tempFilename : tempFilenames) {
+			System.out.println(tempFilename);
+			SimplestSVM tempLearner = new SimplestSVM(tempFilename);
+			tempLearner.train(0.0001, 100000);
 
-		tempLearner.classify();
+			tempLearner.classify();
 
-		System.out.println("The accuracy is: " + tempLearner.computeAccuracy());
+			System.out.println("The accuracy is: " + tempLearner.computeAccuracy());
+		} // Of for tempFilename
 	}// Of testSVM
 
 	/**
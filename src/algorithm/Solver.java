@@ -1,5 +1,9 @@
 package algorithm;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import datamodel.Parameters;
+
 //An SMO algorithm in Fan et al., JMLR 6(2005), p. 1889--1918
 //Solves:
 //
@@ -18,6 +22,21 @@ package algorithm;
 //
 //solution will be put in \alpha, objective value will be put in obj
 //
+//with several threads, working set selection and the gradient updates on
+//vectors larger than parallel_threshold are split into chunks; selection is
+//reduced in chunk order, which gives the same i and j as the serial scan
+//
+//with nr_candidate > 0 a ViolatorIndex is kept up to date along with the
+//gradient; i and the stopping criterion then come from its block maxima and
+//j is searched in the blocks of the nr_candidate largest violations only
+//
+//with nr_pair > 1 every iteration adds up to nr_pair - 1 disjoint maximal
+//violating pairs to the selected one; their steps are taken together as far
+//as the objective decreases at least as much as with the selected pair alone
+//
+//with working_set_size q > 2 the selected pair is extended to q variables by
+//the largest violations and their subproblem is solved by SubproblemSolver
+//
 public class Solver {
 	int active_size;
 	byte[] y;
@@ -33,12 +52,115 @@ public class Solver {
 	double Cp, Cn;
 	double[] p;
 	int[] active_set;
-	double[] G_bar; // gradient, if we treat free variables as 0
+	double[] G_bar; // gradient, if we treat free variables as 0 (compact: null while 0)
 	int l;
 	boolean unshrink; // XXX
 
 	static final double INF = java.lang.Double.POSITIVE_INFINITY;
 
+	static int parallel_threshold = 1 << 15;
+	final int nr_thread;
+	int nr_candidate;
+
+	ViolatorIndex violators;
+	int[] candidate_block;
+	int[] block_mark; // stamp of the last refresh of each block
+	int block_stamp;
+	int[] touched; // rows changed by a sparse add_column
+
+	int nr_pair;
+	int[] pair_index; // variables of the pairs, 2p and 2p+1 form pair p
+	double[] pair_delta;
+	float[][] pair_column;
+	double[] up_value; // largest violations over I_up and I_low
+	int[] up_index;
+	int nr_up;
+	double[] low_value;
+	int[] low_index;
+	int nr_low;
+
+	int working_set_size;
+	int[] ws_index;
+
+	int max_iter; // 0 for the default
+	ShrinkingPolicy shrink_policy; // for adaptive shrinking, null otherwise
+
+	// compact state: p, y and alpha of the caller are used in place and G_bar
+	// is only kept for shrinking, from the first upper bound on
+	boolean compact;
+	private boolean keep_G_bar;
+
+	String checkpoint_dir; // null for no checkpoints
+	double checkpoint_interval;
+	boolean resume;
+
+	static final AtomicLong nr_run = new AtomicLong(); // runs of all solvers
+	SubproblemSolver subproblem;
+
+	// per chunk results of the parallel working set selection
+	double[] chunk_Gmax;
+	double[] chunk_Gmax2;
+	double[] chunk_obj_diff;
+	int[] chunk_Gmax_idx;
+	int[] chunk_Gmin_idx;
+
+	Solver() {
+		nr_thread = 1;
+	}
+
+	Solver(Parameters param) {
+		nr_thread = Parallel.nr_thread(param.nrThreads);
+		nr_candidate = param.nrCandidate;
+		nr_pair = Math.max(1, param.nrPair);
+		working_set_size = Math.max(2, param.workingSetSize);
+		max_iter = param.maxIterations;
+		checkpoint_dir = param.checkpointDir;
+		checkpoint_interval = param.checkpointInterval;
+		resume = param.resume == 1;
+		compact = param.compactSolver == 1;
+	}
+
+	void invalidate_violators() {
+		if (violators != null)
+			violators.invalidate();
+	}
+
+	// refresh the blocks of a valid violator index that hold the rows
+	// touched[0,n) of a sparse add_column (n < 0: any row may have changed)
+	void update_violators(int n) {
+		if (violators == null || !violators.is_valid(active_size))
+			return;
+		if (n < 0) {
+			violators.invalidate();
+			return;
+		}
+		int stamp = ++block_stamp;
+		for (int k = 0; k < n; k++) {
+			int b = touched[k] / ViolatorIndex.BLOCK;
+			if (block_mark[b] != stamp) {
+				block_mark[b] = stamp;
+				violators.update_block(this, b);
+			}
+		}
+	}
+
+	boolean in_parallel(int n) {
+		return nr_thread > 1 && n >= parallel_threshold;
+	}
+
+	boolean select_in_parallel() {
+		if (!in_parallel(active_size))
+			return false;
+		if (chunk_Gmax == null) {
+			chunk_Gmax = new double[nr_thread];
+			chunk_Gmax2 = new double[nr_thread];
+			chunk_obj_diff = new double[nr_thread];
+			chunk_Gmax_idx = new int[nr_thread];
+			chunk_Gmin_idx = new int[nr_thread];
+		}
+		return true;
+	}
+
 	double get_C(int i) {
 		return (y[i] > 0) ? Cp : Cn;
 	}
@@ -72,10 +194,12 @@ public class Solver {
 		double upper_bound_p;
 		double upper_bound_n;
 		double r; // for Solver_NU
+		double gap; // duality gap estimate
 	}
 
 	void swap_index(int i, int j) {
 		Q.swap_index(i, j);
+		invalidate_violators();
 		do {
 			byte tmp = y[i];
 			y[i] = y[j];
@@ -107,29 +231,365 @@ public class Solver {
 			active_set[j] = tmp;
 		} while (false);
 		do {
+			if (G_bar == null)
+				break;
 			double tmp = G_bar[i];
 			G_bar[i] = G_bar[j];
 			G_bar[j] = tmp;
 		} while (false);
 	}
 
+	// y[k] += a * x[k] for k in [begin,end)
+	// kept apart from the solver loops so the JIT can vectorize it
+	static void axpy(double a, float[] x, double[] y, int begin, int end) {
+		for (int k = begin; k < end; k++)
+			y[k] += a * x[k];
+	}
+
+	// G[k] += x[k] * a + z[k] * b for k in [begin,end)
+	static void axpy2(float[] x, double a, float[] z, double b, double[] G, int begin, int end) {
+		for (int k = begin; k < end; k++)
+			G[k] += x[k] * a + z[k] * b;
+	}
+
+	// v[k] += coef * Q[i][k] for k in [begin,end), chunked across the threads
+	// for long dense columns
+	void add_column(int i, final double coef, final double[] v, final int begin, int end) {
+		if (Q.is_sparse() || !in_parallel(end - begin)) {
+			Q.add_column(i, coef, v, begin, end);
+			return;
+		}
+		final float[] Q_i = Q.get_Q(i, end);
+		Parallel.run(end - begin, nr_thread, new Parallel.Loop() {
+			public void run(int c, int b, int e) {
+				axpy(coef, Q_i, v, begin + b, begin + e);
+			}
+		});
+	}
+
+	// G[k] += Q_i[k] * delta_alpha_i + Q_j[k] * delta_alpha_j on the active set
+	// (a valid violator index is refreshed block by block along with it)
+	void update_gradient(final float[] Q_i, final double delta_alpha_i, final float[] Q_j,
+			final double delta_alpha_j) {
+		if (violators != null && violators.is_valid(active_size)) {
+			final int nr_block = violators.nr_block;
+			Parallel.run(nr_block, in_parallel(active_size) ? nr_thread : 1, new Parallel.Loop() {
+				public void run(int c, int begin, int end) {
+					for (int b = begin; b < end; b++) {
+						axpy2(Q_i, delta_alpha_i, Q_j, delta_alpha_j, G, b * ViolatorIndex.BLOCK,
+								Math.min((b + 1) * ViolatorIndex.BLOCK, active_size));
+						violators.update_block(Solver.this, b);
+					}
+				}
+			});
+			return;
+		}
+		if (!in_parallel(active_size)) {
+			axpy2(Q_i, delta_alpha_i, Q_j, delta_alpha_j, G, 0, active_size);
+			return;
+		}
+		Parallel.run(active_size, nr_thread, new Parallel.Loop() {
+			public void run(int c, int begin, int end) {
+				axpy2(Q_i, delta_alpha_i, Q_j, delta_alpha_j, G, begin, end);
+			}
+		});
+	}
+
+	// update alpha[i] and alpha[j] by the analytic solution of the two
+	// variable subproblem, handle bounds carefully
+	void solve_pair(int i, int j, double Q_ij) {
+		double C_i = get_C(i);
+		double C_j = get_C(j);
+
+		if (y[i] != y[j]) {
+			double quad_coef = QD[i] + QD[j] + 2 * Q_ij;
+			if (quad_coef <= 0)
+				quad_coef = 1e-12;
+			double delta = (-G[i] - G[j]) / quad_coef;
+			double diff = alpha[i] - alpha[j];
+			alpha[i] += delta;
+			alpha[j] += delta;
+
+			if (diff > 0) {
+				if (alpha[j] < 0) {
+					alpha[j] = 0;
+					alpha[i] = diff;
+				}
+			} else {
+				if (alpha[i] < 0) {
+					alpha[i] = 0;
+					alpha[j] = -diff;
+				}
+			}
+			if (diff > C_i - C_j) {
+				if (alpha[i] > C_i) {
+					alpha[i] = C_i;
+					alpha[j] = C_i - diff;
+				}
+			} else {
+				if (alpha[j] > C_j) {
+					alpha[j] = C_j;
+					alpha[i] = C_j + diff;
+				}
+			}
+		} else {
+			double quad_coef = QD[i] + QD[j] - 2 * Q_ij;
+			if (quad_coef <= 0)
+				quad_coef = 1e-12;
+			double delta = (G[i] - G[j]) / quad_coef;
+			double sum = alpha[i] + alpha[j];
+			alpha[i] -= delta;
+			alpha[j] += delta;
+
+			if (sum > C_i) {
+				if (alpha[i] > C_i) {
+					alpha[i] = C_i;
+					alpha[j] = sum - C_i;
+				}
+			} else {
+				if (alpha[j] < 0) {
+					alpha[j] = 0;
+					alpha[i] = sum;
+				}
+			}
+			if (sum > C_j) {
+				if (alpha[j] > C_j) {
+					alpha[j] = C_j;
+					alpha[i] = sum - C_j;
+				}
+			} else {
+				if (alpha[i] < 0) {
+					alpha[i] = 0;
+					alpha[j] = sum;
+				}
+			}
+		}
+	}
+
+	// insert t with value v into the list (value, index)[0,n) sorted by
+	// decreasing value and holding at most value.length entries
+	// return the new length
+	private static int insert_top(double[] value, int[] index, int n, double v, int t) {
+		if (n == value.length) {
+			if (v <= value[n - 1])
+				return n;
+			n--;
+		}
+		int k = n;
+		while (k > 0 && value[k - 1] < v) {
+			value[k] = value[k - 1];
+			index[k] = index[k - 1];
+			k--;
+		}
+		value[k] = v;
+		index[k] = t;
+		return n + 1;
+	}
+
+	// collect the largest violations over I_up and I_low other than i and j
+	void find_violators(int i, int j) {
+		nr_up = 0;
+		nr_low = 0;
+		for (int t = 0; t < active_size; t++) {
+			if (t == i || t == j)
+				continue;
+			double yG = (y[t] == +1) ? G[t] : -G[t];
+			boolean up = (y[t] == +1) ? !is_upper_bound(t) : !is_lower_bound(t);
+			boolean low = (y[t] == +1) ? !is_lower_bound(t) : !is_upper_bound(t);
+			if (up)
+				nr_up = insert_top(up_value, up_index, nr_up, -yG, t);
+			if (low)
+				nr_low = insert_top(low_value, low_index, nr_low, yG, t);
+		}
+	}
+
+	// fill pair_index with (i,j) followed by disjoint maximal violating pairs
+	// return the number of pairs
+	int select_pairs(int i, int j) {
+		find_violators(i, j);
+
+		pair_index[0] = i;
+		pair_index[1] = j;
+		int n = 1;
+		for (int u = 0; u < nr_up && n < nr_pair; u++) {
+			int t = up_index[u];
+			if (contains(pair_index, 2 * n, t))
+				continue;
+			// a free variable may be in both lists
+			int w = 0;
+			while (w < nr_low && (low_index[w] == t || contains(pair_index, 2 * n, low_index[w])))
+				w++;
+			if (w == nr_low || up_value[u] + low_value[w] < eps)
+				break;
+			pair_index[2 * n] = t;
+			pair_index[2 * n + 1] = low_index[w];
+			n++;
+		}
+		return n;
+	}
+
+	// one iteration on the pair (i,j) and further disjoint pairs
+	// the step of each pair is computed from the current gradient; the other
+	// pairs are added in order as long as each lowers the objective further,
+	// so the decrease is at least that of the single pair (i,j)
+	void update_pairs(int i, int j) {
+		int n = select_pairs(i, j);
+		float[][] columns = Q.get_Q_columns(pair_index, 2 * n, active_size);
+		final float[][] column = pair_column;
+		for (int c = 0; c < 2 * n; c++)
+			column[c] = columns[c];
+
+		// independent steps of the pairs
+		for (int p = 0; p < n; p++) {
+			int a = pair_index[2 * p];
+			int b = pair_index[2 * p + 1];
+			double old_alpha_a = alpha[a];
+			double old_alpha_b = alpha[b];
+			solve_pair(a, b, column[2 * p][b]);
+			pair_delta[2 * p] = alpha[a] - old_alpha_a;
+			pair_delta[2 * p + 1] = alpha[b] - old_alpha_b;
+			alpha[a] = old_alpha_a;
+			alpha[b] = old_alpha_b;
+		}
+
+		// accepted variables are moved to the front of pair_index
+		int m = 0;
+		for (int p = 0; p < n; p++) {
+			double change = 0;
+			for (int c = 2 * p; c < 2 * p + 2; c++) {
+				int t = pair_index[c];
+				double d = pair_delta[c];
+				change += d * (G[t] + 0.5 * d * QD[t]);
+				for (int e = 0; e < m; e++)
+					change += pair_delta[e] * d * column[e][t];
+			}
+			change += pair_delta[2 * p] * pair_delta[2 * p + 1] * column[2 * p][pair_index[2 * p + 1]];
+			if (p > 0 && !(change < 0))
+				continue;
+			for (int c = 2 * p; c < 2 * p + 2; c++) {
+				pair_index[m] = pair_index[c];
+				pair_delta[m] = pair_delta[c];
+				column[m] = column[c];
+				m++;
+			}
+		}
+
+		final int nr_column = m;
+		for (int c = 0; c < nr_column; c++)
+			alpha[pair_index[c]] += pair_delta[c];
+
+		// update G
+		Parallel.run(active_size, in_parallel(active_size) ? nr_thread : 1, new Parallel.Loop() {
+			public void run(int chunk, int begin, int end) {
+				for (int c = 0; c < nr_column; c++)
+					axpy(pair_delta[c], column[c], G, begin, end);
+			}
+		});
+		invalidate_violators();
+
+		// update alpha_status and G_bar
+		for (int c = 0; c < nr_column; c++) {
+			int t = pair_index[c];
+			boolean u = is_upper_bound(t);
+			update_alpha_status(t);
+			if (u != is_upper_bound(t))
+				update_G_bar(t, u ? -get_C(t) : get_C(t));
+		}
+	}
+
+	private static boolean contains(int[] index, int n, int t) {
+		for (int c = 0; c < n; c++)
+			if (index[c] == t)
+				return true;
+		return false;
+	}
+
+	// fill ws_index with i, j and the largest violations from I_up and I_low
+	// in turn, return the size of the working set
+	int select_working_set_q(int i, int j) {
+		find_violators(i, j);
+
+		ws_index[0] = i;
+		ws_index[1] = j;
+		int q = 2;
+		int u = 0, w = 0;
+		while (q < working_set_size && (u < nr_up || w < nr_low)) {
+			if (u < nr_up && !contains(ws_index, q, up_index[u]))
+				ws_index[q++] = up_index[u];
+			u++;
+			if (q < working_set_size && w < nr_low && !contains(ws_index, q, low_index[w]))
+				ws_index[q++] = low_index[w];
+			w++;
+		}
+		return q;
+	}
+
+	// one iteration on a working set of more than two variables
+	// the subproblem is started from the current alpha, so its first step is
+	// on (i,j) or better and the decrease is at least that of the pair
+	void update_working_set(int i, int j) {
+		int q = select_working_set_q(i, j);
+		float[][] columns = Q.get_Q_columns(ws_index, q, active_size);
+		subproblem.load(this, ws_index, q, columns);
+		subproblem.solve(0.1 * eps, Math.max(1000, 100 * q));
+
+		final double[] delta = pair_delta;
+		final float[][] column = pair_column;
+		int n = 0;
+		for (int a = 0; a < q; a++) {
+			int t = ws_index[a];
+			double d = subproblem.alpha[a] - alpha[t];
+			if (d != 0) {
+				alpha[t] = subproblem.alpha[a];
+				ws_index[n] = t;
+				delta[n] = d;
+				column[n] = columns[a];
+				n++;
+			}
+		}
+
+		// update G
+		final int nr_column = n;
+		Parallel.run(active_size, in_parallel(active_size) ? nr_thread : 1, new Parallel.Loop() {
+			public void run(int chunk, int begin, int end) {
+				for (int c = 0; c < nr_column; c++)
+					axpy(delta[c], column[c], G, begin, end);
+			}
+		});
+		invalidate_violators();
+
+		// update alpha_status and G_bar
+		for (int c = 0; c < nr_column; c++) {
+			int t = ws_index[c];
+			boolean u = is_upper_bound(t);
+			update_alpha_status(t);
+			if (u != is_upper_bound(t))
+				update_G_bar(t, u ? -get_C(t) : get_C(t));
+		}
+	}
+
 	void reconstruct_gradient() {
 		// reconstruct inactive elements of G from G_bar and free variables
 
 		if (active_size == l)
 			return;
 
+		invalidate_violators();
+
 		int i, j;
 		int nr_free = 0;
 
 		for (j = active_size; j < l; j++)
-			G[j] = G_bar[j] + p[j];
+			G[j] = (G_bar != null) ? G_bar[j] + p[j] : p[j];
 
 		for (j = 0; j < active_size; j++)
 			if (is_free(j))
 				nr_free++;
 
-		if (2 * nr_free < active_size)
+		if (shrink_policy != null)
+			shrink_policy.reconstructed(Math.min((long) nr_free * (l - active_size),
+					(long) active_size * (l - active_size)));
+		else if (2 * nr_free < active_size)
 			SVM.info("\nWARNING: using -h 0 may be faster\n");
 
 		if (nr_free * l > 2 * active_size * (l - active_size)) {
@@ -141,27 +601,59 @@ public class Solver {
 			}
 		} else {
 			for (i = 0; i < active_size; i++)
-				if (is_free(i)) {
-					float[] Q_i = Q.get_Q(i, l);
-					double alpha_i = alpha[i];
-					for (j = active_size; j < l; j++)
-						G[j] += alpha_i * Q_i[j];
-				}
+				if (is_free(i))
+					add_column(i, alpha[i], G, active_size, l);
 		}
 	}
 
+	// compute G and G_bar of all l variables from alpha
+	void initialize_gradient() {
+		invalidate_violators();
+		int i;
+		for (i = 0; i < l; i++)
+			G[i] = p[i];
+		if (G_bar != null)
+			for (i = 0; i < l; i++)
+				G_bar[i] = 0;
+		for (i = 0; i < l; i++)
+			if (!is_lower_bound(i)) {
+				add_column(i, alpha[i], G, 0, l);
+				if (is_upper_bound(i))
+					update_G_bar(i, get_C(i));
+			}
+	}
+
+	// G_bar += coef * Q_i, allocating G_bar in compact mode when it is
+	// first needed
+	void update_G_bar(int i, double coef) {
+		if (G_bar == null) {
+			if (!keep_G_bar)
+				return;
+			G_bar = new double[l];
+		}
+		add_column(i, coef, G_bar, 0, l);
+	}
+
 	void Solve(int l, QMatrix Q, double[] p_, byte[] y_, double[] alpha_, double Cp, double Cn,
 			double eps, SolutionInfo si, int shrinking) {
 		this.l = l;
 		this.Q = Q;
 		QD = Q.get_QD();
-		p = (double[]) p_.clone();
-		y = (byte[]) y_.clone();
-		alpha = (double[]) alpha_.clone();
+		if (compact) {
+			p = p_;
+			y = y_;
+			alpha = alpha_;
+		} else {
+			p = (double[]) p_.clone();
+			y = (byte[]) y_.clone();
+			alpha = (double[]) alpha_.clone();
+		}
+		keep_G_bar = !compact || shrinking != 0;
 		this.Cp = Cp;
 		this.Cn = Cn;
 		this.eps = eps;
 		this.unshrink = false;
+		shrink_policy = (shrinking == 2) ? new ShrinkingPolicy(l) : null;
 
 		// initialize alpha_status
 		{
@@ -180,40 +672,76 @@ public class Solver {
 
 		// initialize gradient
 		{
-			G = new double[l];
-			G_bar = new double[l];
-			int i;
-			for (i = 0; i < l; i++) {
-				G[i] = p[i];
-				G_bar[i] = 0;
+			if (nr_pair > 1 || working_set_size > 2) {
+				int n = Math.max(2 * nr_pair, working_set_size);
+				pair_index = new int[2 * nr_pair];
+				pair_delta = new double[n];
+				pair_column = new float[n][];
+				up_value = new double[n];
+				up_index = new int[n];
+				low_value = new double[n];
+				low_index = new int[n];
 			}
-			for (i = 0; i < l; i++)
-				if (!is_lower_bound(i)) {
-					float[] Q_i = Q.get_Q(i, l);
-					double alpha_i = alpha[i];
-					int j;
-					for (j = 0; j < l; j++)
-						G[j] += alpha_i * Q_i[j];
-					if (is_upper_bound(i))
-						for (j = 0; j < l; j++)
-							G_bar[j] += get_C(i) * Q_i[j];
-				}
+			if (working_set_size > 2) {
+				ws_index = new int[working_set_size];
+				subproblem = new SubproblemSolver(working_set_size, Cp, Cn);
+			}
+			if (nr_candidate > 0) {
+				violators = new ViolatorIndex(l);
+				candidate_block = new int[(nr_candidate + ViolatorIndex.BLOCK - 1)
+						/ ViolatorIndex.BLOCK];
+				block_mark = new int[violators.up_max.length];
+			}
+			if (Q.is_sparse())
+				touched = new int[l];
+			G = new double[l];
+			G_bar = compact ? null : new double[l];
 		}
 
-		// optimization step
+		// optimization step, or where the checkpoint of this problem left it
 
 		int iter = 0;
-		int max_iter = Math.max(10000000,
+		Checkpoint checkpoint = (checkpoint_dir != null)
+				? Checkpoint.open(this, shrinking, checkpoint_dir, checkpoint_interval)
+				: null;
+		int restored = (checkpoint != null && resume) ? checkpoint.restore(this) : -1;
+		if (restored >= 0)
+			iter = restored;
+		else
+			initialize_gradient();
+		int max_iter = (this.max_iter > 0) ? this.max_iter : Math.max(10000000,
 				l > Integer.MAX_VALUE / 100 ? Integer.MAX_VALUE : 100 * l);
 		int counter = Math.min(l, 1000) + 1;
 		int[] working_set = new int[2];
+		boolean sparse = Q.is_sparse();
+		TrainingControl control = TrainingControl.current();
+		boolean stopped = control != null && control.should_stop();
+		SolverListener listener = SVM.solver_listener;
+		int report_interval = SVM.solver_listener_interval;
+		SolverProgress progress = null;
+		long start_time = 0;
+		if (listener != null) {
+			progress = new SolverProgress();
+			progress.run = nr_run.incrementAndGet();
+			progress.l = l;
+			start_time = System.nanoTime();
+		}
+
+		while (iter < max_iter && !stopped) {
+			if (progress != null && iter % report_interval == 0)
+				report(listener, progress, iter, start_time);
 
-		while (iter < max_iter) {
 			// show progress and do shrinking
 
 			if (--counter == 0) {
-				counter = Math.min(l, 1000);
-				if (shrinking != 0)
+				counter = (shrink_policy != null) ? shrink_policy.interval : Math.min(l, 1000);
+				if (control != null && control.should_stop()) {
+					stopped = true;
+					break;
+				}
+				if (checkpoint != null && checkpoint.due())
+					checkpoint.save(this, iter);
+				if (shrinking == 1 || (shrink_policy != null && shrink_policy.enabled))
 					do_shrinking();
 				SVM.info(".");
 			}
@@ -224,21 +752,43 @@ public class Solver {
 				// reset active set size and check
 				active_size = l;
 				SVM.info("*");
-				if (select_working_set(working_set) != 0)
-					break;
-				else
-					counter = 1; // do shrinking next iteration
+				if (select_working_set(working_set) != 0) {
+					// optimal with a half precision cache: the gradient was
+					// accumulated from rounded columns, so recompute it in full
+					// precision and continue only if that is not optimal
+					if (!Q.set_full_precision())
+						break;
+					initialize_gradient();
+					SVM.info("#");
+					if (select_working_set(working_set) != 0)
+						break;
+				}
+				if (shrink_policy != null)
+					shrink_policy.missed();
+				counter = 1; // do shrinking next iteration
 			}
 
 			int i = working_set[0];
 			int j = working_set[1];
 
 			++iter;
+			if (shrink_policy != null)
+				shrink_policy.iteration(l, active_size);
+
+			if (working_set_size > 2 && !sparse) {
+				update_working_set(i, j);
+				continue;
+			}
+			if (nr_pair > 1 && !sparse) {
+				update_pairs(i, j);
+				continue;
+			}
 
 			// update alpha[i] and alpha[j], handle bounds carefully
+			// (sparse columns are never made dense here, Q_ij is looked up)
 
-			float[] Q_i = Q.get_Q(i, active_size);
-			float[] Q_j = Q.get_Q(j, active_size);
+			float[] Q_i = sparse ? null : Q.get_Q(i, active_size);
+			float[] Q_j = sparse ? null : Q.get_Q(j, active_size);
 
 			double C_i = get_C(i);
 			double C_j = get_C(j);
@@ -246,78 +796,18 @@ public class Solver {
 			double old_alpha_i = alpha[i];
 			double old_alpha_j = alpha[j];
 
-			if (y[i] != y[j]) {
-				double quad_coef = QD[i] + QD[j] + 2 * Q_i[j];
-				if (quad_coef <= 0)
-					quad_coef = 1e-12;
-				double delta = (-G[i] - G[j]) / quad_coef;
-				double diff = alpha[i] - alpha[j];
-				alpha[i] += delta;
-				alpha[j] += delta;
-
-				if (diff > 0) {
-					if (alpha[j] < 0) {
-						alpha[j] = 0;
-						alpha[i] = diff;
-					}
-				} else {
-					if (alpha[i] < 0) {
-						alpha[i] = 0;
-						alpha[j] = -diff;
-					}
-				}
-				if (diff > C_i - C_j) {
-					if (alpha[i] > C_i) {
-						alpha[i] = C_i;
-						alpha[j] = C_i - diff;
-					}
-				} else {
-					if (alpha[j] > C_j) {
-						alpha[j] = C_j;
-						alpha[i] = C_j + diff;
-					}
-				}
-			} else {
-				double quad_coef = QD[i] + QD[j] - 2 * Q_i[j];
-				if (quad_coef <= 0)
-					quad_coef = 1e-12;
-				double delta = (G[i] - G[j]) / quad_coef;
-				double sum = alpha[i] + alpha[j];
-				alpha[i] -= delta;
-				alpha[j] += delta;
-
-				if (sum > C_i) {
-					if (alpha[i] > C_i) {
-						alpha[i] = C_i;
-						alpha[j] = sum - C_i;
-					}
-				} else {
-					if (alpha[j] < 0) {
-						alpha[j] = 0;
-						alpha[i] = sum;
-					}
-				}
-				if (sum > C_j) {
-					if (alpha[j] > C_j) {
-						alpha[j] = C_j;
-						alpha[i] = sum - C_j;
-					}
-				} else {
-					if (alpha[i] < 0) {
-						alpha[i] = 0;
-						alpha[j] = sum;
-					}
-				}
-			}
+			solve_pair(i, j, sparse ? Q.get_Q_entry(i, j) : Q_i[j]);
 
 			// update G
 
 			double delta_alpha_i = alpha[i] - old_alpha_i;
 			double delta_alpha_j = alpha[j] - old_alpha_j;
 
-			for (int k = 0; k < active_size; k++) {
-				G[k] += Q_i[k] * delta_alpha_i + Q_j[k] * delta_alpha_j;
-			}
+			if (sparse) {
+				update_violators(Q.add_column(i, delta_alpha_i, G, 0, active_size, touched));
+				update_violators(Q.add_column(j, delta_alpha_j, G, 0, active_size, touched));
+			} else
+				update_gradient(Q_i, delta_alpha_i, Q_j, delta_alpha_j);
 
 			// update alpha_status and G_bar
 
@@ -326,43 +816,48 @@ public class Solver {
 				boolean uj = is_upper_bound(j);
 				update_alpha_status(i);
 				update_alpha_status(j);
-				int k;
-				if (ui != is_upper_bound(i)) {
-					Q_i = Q.get_Q(i, l);
-					if (ui)
-						for (k = 0; k < l; k++)
-							G_bar[k] -= C_i * Q_i[k];
-					else
-						for (k = 0; k < l; k++)
-							G_bar[k] += C_i * Q_i[k];
+				if (violators != null && violators.is_valid(active_size)) {
+					violators.update_block(this, i / ViolatorIndex.BLOCK);
+					violators.update_block(this, j / ViolatorIndex.BLOCK);
 				}
+				if (ui != is_upper_bound(i))
+					update_G_bar(i, ui ? -C_i : C_i);
 
-				if (uj != is_upper_bound(j)) {
-					Q_j = Q.get_Q(j, l);
-					if (uj)
-						for (k = 0; k < l; k++)
-							G_bar[k] -= C_j * Q_j[k];
-					else
-						for (k = 0; k < l; k++)
-							G_bar[k] += C_j * Q_j[k];
-				}
+				if (uj != is_upper_bound(j))
+					update_G_bar(j, uj ? -C_j : C_j);
 			}
 
 		}
 
-		if (iter >= max_iter) {
+		if (iter >= max_iter || stopped) {
 			if (active_size < l) {
 				// reconstruct the whole gradient to calculate objective value
 				reconstruct_gradient();
 				active_size = l;
 				SVM.info("*");
 			}
-			System.err.print("\nWARNING: reaching max number of iterations\n");
+			if (stopped)
+				System.err.print("\nWARNING: training stopped by its time limit or cancel\n");
+			else
+				System.err.print("\nWARNING: reaching max number of iterations\n");
 		}
 
 		// calculate rho
 
 		si.rho = calculate_rho();
+		si.gap = duality_gap(si.rho);
+		if (iter >= max_iter || stopped)
+			SVM.info("\nduality gap = " + si.gap + "\n");
+		if (control != null)
+			control.report(si.gap, iter >= max_iter || stopped);
+		if (progress != null) {
+			progress.finished = true;
+			report(listener, progress, iter, start_time);
+		}
+		if (checkpoint != null) {
+			checkpoint.save(this, iter);
+			checkpoint.await();
+		}
 
 		// calculate objective value
 		{
@@ -375,7 +870,9 @@ public class Solver {
 		}
 
 		// put back the solution
-		{
+		if (compact)
+			unpermute();
+		else {
 			for (int i = 0; i < l; i++)
 				alpha_[active_set[i]] = alpha[i];
 		}
@@ -384,6 +881,83 @@ public class Solver {
 		si.upper_bound_n = Cn;
 
 		SVM.info("\noptimization finished, #iter = " + iter + "\n");
+		if (compact)
+			SVM.info("solver state: " + state_bytes() / l + " bytes per sample\n");
+	}
+
+	// compact mode: move alpha, y and p, which are the caller's arrays, back
+	// to the order before shrinking, following the cycles of active_set
+	private void unpermute() {
+		for (int s = 0; s < l; s++) {
+			if (active_set[s] < 0)
+				continue;
+			double a = alpha[s], v = p[s];
+			byte b = y[s];
+			int k = s;
+			do {
+				int t = active_set[k];
+				active_set[k] = ~t;
+				double tmp_a = alpha[t];
+				alpha[t] = a;
+				a = tmp_a;
+				double tmp_v = p[t];
+				p[t] = v;
+				v = tmp_v;
+				byte tmp_b = y[t];
+				y[t] = b;
+				b = tmp_b;
+				k = t;
+			} while (k != s);
+		}
+		for (int k = 0; k < l; k++)
+			active_set[k] = ~active_set[k];
+	}
+
+	// bytes of the per sample state of this run, with the caller's alpha, p
+	// and y
+	long state_bytes() {
+		long n = 3 * 8 + 1 + 1 + 4; // alpha, p, G, y, alpha_status, active_set
+		if (!compact)
+			n += 8 + 8 + 1; // the copies of alpha, p and y
+		if (G_bar != null)
+			n += 8;
+		return n * l;
+	}
+
+	void report(SolverListener listener, SolverProgress progress, int iter, long start_time) {
+		progress.iter = iter;
+		progress.violation = max_violation();
+		progress.active_size = active_size;
+		int nr_free = 0, nr_bounded = 0;
+		for (int t = 0; t < l; t++)
+			if (alpha_status[t] == FREE)
+				++nr_free;
+			else if (alpha_status[t] == UPPER_BOUND)
+				++nr_bounded;
+		progress.nr_free = nr_free;
+		progress.nr_bounded = nr_bounded;
+		progress.cache_hit_rate = Q.cache_hit_rate();
+		progress.seconds = (System.nanoTime() - start_time) / 1e9;
+		listener.progress(progress);
+	}
+
+	// the violation select_working_set compares with eps
+	double max_violation() {
+		double Gmax = -INF;
+		double Gmax2 = -INF;
+		for (int t = 0; t < active_size; t++)
+			if (y[t] == +1) {
+				if (!is_upper_bound(t))
+					Gmax = Math.max(Gmax, -G[t]);
+				if (!is_lower_bound(t))
+					Gmax2 = Math.max(Gmax2, G[t]);
+			} else {
+				if (!is_lower_bound(t))
+					Gmax = Math.max(Gmax, G[t]);
+				if (!is_upper_bound(t))
+					Gmax2 = Math.max(Gmax2, -G[t]);
+			}
+		return Gmax + Gmax2;
 	}
 
 	// return 1 if already optimal, return 0 otherwise
@@ -394,6 +968,14 @@ public class Solver {
 		// (if quadratic coefficeint <= 0, replace it with tau)
 		// -y_j*grad(f)_j < -y_i*grad(f)_i, j in I_low(\alpha)
 
+		if (violators != null) {
+			int ret = select_working_set_indexed(working_set);
+			if (ret >= 0)
+				return ret;
+		}
+		if (select_in_parallel())
+			return select_working_set_parallel(working_set);
+
 		double Gmax = -INF;
 		double Gmax2 = -INF;
 		int Gmax_idx = -1;
@@ -470,6 +1052,197 @@ public class Solver {
 		return 0;
 	}
 
+	// select_working_set on the violator index
+	// i is exact, j is the best of the candidate blocks
+	// return -1 if none of them gives a violating pair, the full scan decides
+	int select_working_set_indexed(int[] working_set) {
+		if (!violators.is_valid(active_size))
+			violators.rebuild(this);
+
+		double Gmax = -INF;
+		int Gmax_idx = -1;
+		double Gmax2 = -INF;
+		for (int b = 0; b < violators.nr_block; b++) {
+			if (violators.up_idx[b] != -1 && violators.up_max[b] >= Gmax) {
+				Gmax = violators.up_max[b];
+				Gmax_idx = violators.up_idx[b];
+			}
+			if (violators.low_max[b] >= Gmax2)
+				Gmax2 = violators.low_max[b];
+		}
+
+		if (Gmax + Gmax2 < eps)
+			return 1;
+
+		int i = Gmax_idx;
+		// a sparse column is only looked up at the candidates
+		float[] Q_i = Q.is_sparse() ? null : Q.get_Q(i, active_size);
+		int Gmin_idx = -1;
+		double obj_diff_min = INF;
+
+		int n = violators.select_blocks(candidate_block, candidate_block.length);
+		for (int c = 0; c < n; c++) {
+			int begin = candidate_block[c] * ViolatorIndex.BLOCK;
+			int end = Math.min(begin + ViolatorIndex.BLOCK, active_size);
+			for (int j = begin; j < end; j++) {
+				if (y[j] == +1) {
+					if (!is_lower_bound(j)) {
+						double grad_diff = Gmax + G[j];
+						if (grad_diff > 0) {
+							double obj_diff;
+							double Q_ij = (Q_i != null) ? Q_i[j] : Q.get_Q_entry(i, j);
+							double quad_coef = QD[i] + QD[j] - 2.0 * y[i] * Q_ij;
+							if (quad_coef > 0)
+								obj_diff = -(grad_diff * grad_diff) / quad_coef;
+							else
+								obj_diff = -(grad_diff * grad_diff) / 1e-12;
+
+							if (obj_diff <= obj_diff_min) {
+								Gmin_idx = j;
+								obj_diff_min = obj_diff;
+							}
+						}
+					}
+				} else {
+					if (!is_upper_bound(j)) {
+						double grad_diff = Gmax - G[j];
+						if (grad_diff > 0) {
+							double obj_diff;
+							double Q_ij = (Q_i != null) ? Q_i[j] : Q.get_Q_entry(i, j);
+							double quad_coef = QD[i] + QD[j] + 2.0 * y[i] * Q_ij;
+							if (quad_coef > 0)
+								obj_diff = -(grad_diff * grad_diff) / quad_coef;
+							else
+								obj_diff = -(grad_diff * grad_diff) / 1e-12;
+
+							if (obj_diff <= obj_diff_min) {
+								Gmin_idx = j;
+								obj_diff_min = obj_diff;
+							}
+						}
+					}
+				}
+			}
+		}
+
+		if (Gmin_idx == -1)
+			return -1;
+
+		working_set[0] = Gmax_idx;
+		working_set[1] = Gmin_idx;
+		return 0;
+	}
+
+	// select_working_set with both scans split into chunks of [0,active_size)
+	// ties are resolved as in the serial scan: the last index wins
+	int select_working_set_parallel(int[] working_set) {
+		Parallel.run(active_size, nr_thread, new Parallel.Loop() {
+			public void run(int c, int begin, int end) {
+				double Gmax = -INF;
+				int Gmax_idx = -1;
+				for (int t = begin; t < end; t++)
+					if (y[t] == +1) {
+						if (!is_upper_bound(t))
+							if (-G[t] >= Gmax) {
+								Gmax = -G[t];
+								Gmax_idx = t;
+							}
+					} else {
+						if (!is_lower_bound(t))
+							if (G[t] >= Gmax) {
+								Gmax = G[t];
+								Gmax_idx = t;
+							}
+					}
+				chunk_Gmax[c] = Gmax;
+				chunk_Gmax_idx[c] = Gmax_idx;
+			}
+		});
+
+		double Gmax = -INF;
+		int Gmax_idx = -1;
+		for (int c = 0; c < nr_thread; c++)
+			if (chunk_Gmax_idx[c] != -1 && chunk_Gmax[c] >= Gmax) {
+				Gmax = chunk_Gmax[c];
+				Gmax_idx = chunk_Gmax_idx[c];
+			}
+
+		final int i = Gmax_idx;
+		final float[] Q_i = (i != -1) ? Q.get_Q(i, active_size) : null;
+		final double Gmax_i = Gmax;
+
+		Parallel.run(active_size, nr_thread, new Parallel.Loop() {
+			public void run(int c, int begin, int end) {
+				double Gmax2 = -INF;
+				int Gmin_idx = -1;
+				double obj_diff_min = INF;
+				for (int j = begin; j < end; j++) {
+					if (y[j] == +1) {
+						if (!is_lower_bound(j)) {
+							double grad_diff = Gmax_i + G[j];
+							if (G[j] >= Gmax2)
+								Gmax2 = G[j];
+							if (grad_diff > 0) {
+								double obj_diff;
+								double quad_coef = QD[i] + QD[j] - 2.0 * y[i] * Q_i[j];
+								if (quad_coef > 0)
+									obj_diff = -(grad_diff * grad_diff) / quad_coef;
+								else
+									obj_diff = -(grad_diff * grad_diff) / 1e-12;
+
+								if (obj_diff <= obj_diff_min) {
+									Gmin_idx = j;
+									obj_diff_min = obj_diff;
+								}
+							}
+						}
+					} else {
+						if (!is_upper_bound(j)) {
+							double grad_diff = Gmax_i - G[j];
+							if (-G[j] >= Gmax2)
+								Gmax2 = -G[j];
+							if (grad_diff > 0) {
+								double obj_diff;
+								double quad_coef = QD[i] + QD[j] + 2.0 * y[i] * Q_i[j];
+								if (quad_coef > 0)
+									obj_diff = -(grad_diff * grad_diff) / quad_coef;
+								else
+									obj_diff = -(grad_diff * grad_diff) / 1e-12;
+
+								if (obj_diff <= obj_diff_min) {
+									Gmin_idx = j;
+									obj_diff_min = obj_diff;
+								}
+							}
+						}
+					}
+				}
+				chunk_Gmax2[c] = Gmax2;
+				chunk_Gmin_idx[c] = Gmin_idx;
+				chunk_obj_diff[c] = obj_diff_min;
+			}
+		});
+
+		double Gmax2 = -INF;
+		int Gmin_idx = -1;
+		double obj_diff_min = INF;
+		for (int c = 0; c < nr_thread; c++) {
+			if (chunk_Gmax2[c] >= Gmax2)
+				Gmax2 = chunk_Gmax2[c];
+			if (chunk_Gmin_idx[c] != -1 && chunk_obj_diff[c] <= obj_diff_min) {
+				Gmin_idx = chunk_Gmin_idx[c];
+				obj_diff_min = chunk_obj_diff[c];
+			}
+		}
+
+		if (Gmax + Gmax2 < eps || Gmin_idx == -1)
+			return 1;
+
+		working_set[0] = Gmax_idx;
+		working_set[1] = Gmin_idx;
+		return 0;
+	}
+
 	private boolean be_shrunk(int i, double Gmax1, double Gmax2) {
 		if (is_upper_bound(i)) {
 			if (y[i] == +1)
@@ -520,6 +1293,13 @@ public class Solver {
 			SVM.info("*");
 		}
 
+		if (shrink_policy != null) {
+			shrink_policy.scanned(active_size);
+			double margin = shrink_policy.margin * Math.max(Gmax1 + Gmax2, 0);
+			Gmax1 += margin;
+			Gmax2 += margin;
+		}
+
 		for (i = 0; i < active_size; i++)
 			if (be_shrunk(i, Gmax1, Gmax2)) {
 				active_size--;
@@ -564,4 +1344,17 @@ public class Solver {
 		return r;
 	}
 
+	// upper bound of f(alpha) - min f from the gradient: with r_t = G_t -
+	// y_t*rho, moving every alpha_t to the bound that decreases the linear
+	// model of f gains at most sum_t r_t*alpha_t for r_t > 0 and
+	// r_t*(alpha_t - C_t) for r_t < 0 (the dual gap of the primal with b = rho)
+	double duality_gap(double rho) {
+		double gap = 0;
+		for (int t = 0; t < active_size; t++) {
+			double r = G[t] - y[t] * rho;
+			gap += (r > 0) ? r * alpha[t] : r * (alpha[t] - get_C(t));
+		}
+		return gap;
+	}
+
 }
@@ -0,0 +1,14 @@
+package algorithm;
+
+/**
+ * Receives the convergence of the solver runs, registered with
+ * SVM.svm_set_solver_listener. Every run calls progress at each interval-th
+ * iteration and once when it has finished; runs of the linear solver, whose
+ * iterations are passes over the data, call it after every pass. The SolverProgress object is
+ * reused within a run, so it is only valid during the call.
+ *
+ * Trainings on several threads call the listener concurrently.
+ */
+public interface SolverListener {
+	void progress(SolverProgress progress);
+}
@@ -1,6 +1,7 @@
 package algorithm;
 
 import algorithm.Solver.SolutionInfo;
+import datamodel.Parameters;
 
 //
 //Solver for nu-svm classification and regression
@@ -11,6 +12,23 @@ public final class SolverNU extends Solver
 {
 	private SolutionInfo si;
 
+	// per chunk results for the negative class, chunk_Gmax* hold the positive one
+	private double[] chunk_Gmaxn;
+	private double[] chunk_Gmaxn2;
+	private int[] chunk_Gmaxn_idx;
+
+	SolverNU()
+	{
+	}
+
+	SolverNU(Parameters param)
+	{
+		super(param);
+		nr_candidate = 0; // the violator index does not split by class
+		nr_pair = 1; // added pairs would not stay within a class
+		working_set_size = 2; // the subproblem has no per-class constraint
+	}
+
 	void Solve(int l, QMatrix Q, double[] p, byte[] y,
 		   double[] alpha, double Cp, double Cn, double eps,
 		   SolutionInfo si, int shrinking)
@@ -28,6 +46,9 @@ public final class SolverNU extends Solver
 		//    (if quadratic coefficeint <= 0, replace it with tau)
 		//    -y_j*grad(f)_j < -y_i*grad(f)_i, j in I_low(\alpha)
 
+		if(select_in_parallel())
+			return select_working_set_parallel(working_set);
+
 		double Gmaxp = -INF;
 		double Gmaxp2 = -INF;
 		int Gmaxp_idx = -1;
@@ -132,6 +153,169 @@ public final class SolverNU extends Solver
 		return 0;
 	}
 
+	// select_working_set with both scans split into chunks of [0,active_size)
+	// ties are resolved as in the serial scan: the last index wins
+	int select_working_set_parallel(int[] working_set)
+	{
+		if(chunk_Gmaxn == null)
+		{
+			chunk_Gmaxn = new double[nr_thread];
+			chunk_Gmaxn2 = new double[nr_thread];
+			chunk_Gmaxn_idx = new int[nr_thread];
+		}
+
+		Parallel.run(active_size, nr_thread, new Parallel.Loop() {
+			public void run(int c, int begin, int end)
+			{
+				double Gmaxp = -INF;
+				int Gmaxp_idx = -1;
+				double Gmaxn = -INF;
+				int Gmaxn_idx = -1;
+				for(int t=begin;t<end;t++)
+					if(y[t]==+1)
+					{
+						if(!is_upper_bound(t))
+							if(-G[t] >= Gmaxp)
+							{
+								Gmaxp = -G[t];
+								Gmaxp_idx = t;
+							}
+					}
+					else
+					{
+						if(!is_lower_bound(t))
+							if(G[t] >= Gmaxn)
+							{
+								Gmaxn = G[t];
+								Gmaxn_idx = t;
+							}
+					}
+				chunk_Gmax[c] = Gmaxp;
+				chunk_Gmax_idx[c] = Gmaxp_idx;
+				chunk_Gmaxn[c] = Gmaxn;
+				chunk_Gmaxn_idx[c] = Gmaxn_idx;
+			}
+		});
+
+		double Gmaxp = -INF;
+		int Gmaxp_idx = -1;
+		double Gmaxn = -INF;
+		int Gmaxn_idx = -1;
+		for(int c=0;c<nr_thread;c++)
+		{
+			if(chunk_Gmax_idx[c] != -1 && chunk_Gmax[c] >= Gmaxp)
+			{
+				Gmaxp = chunk_Gmax[c];
+				Gmaxp_idx = chunk_Gmax_idx[c];
+			}
+			if(chunk_Gmaxn_idx[c] != -1 && chunk_Gmaxn[c] >= Gmaxn)
+			{
+				Gmaxn = chunk_Gmaxn[c];
+				Gmaxn_idx = chunk_Gmaxn_idx[c];
+			}
+		}
+
+		final int ip = Gmaxp_idx;
+		final int in = Gmaxn_idx;
+		final float[] Q_ip = (ip != -1) ? Q.get_Q(ip,active_size) : null;
+		final float[] Q_in = (in != -1) ? Q.get_Q(in,active_size) : null;
+		final double Gmaxp_i = Gmaxp;
+		final double Gmaxn_i = Gmaxn;
+
+		Parallel.run(active_size, nr_thread, new Parallel.Loop() {
+			public void run(int c, int begin, int end)
+			{
+				double Gmaxp2 = -INF;
+				double Gmaxn2 = -INF;
+				int Gmin_idx = -1;
+				double obj_diff_min = INF;
+				for(int j=begin;j<end;j++)
+				{
+					if(y[j]==+1)
+					{
+						if (!is_lower_bound(j))
+						{
+							double grad_diff=Gmaxp_i+G[j];
+							if (G[j] >= Gmaxp2)
+								Gmaxp2 = G[j];
+							if (grad_diff > 0)
+							{
+								double obj_diff;
+								double quad_coef = QD[ip]+QD[j]-2*Q_ip[j];
+								if (quad_coef > 0)
+									obj_diff = -(grad_diff*grad_diff)/quad_coef;
+								else
+									obj_diff = -(grad_diff*grad_diff)/1e-12;
+
+								if (obj_diff <= obj_diff_min)
+								{
+									Gmin_idx=j;
+									obj_diff_min = obj_diff;
+								}
+							}
+						}
+					}
+					else
+					{
+						if (!is_upper_bound(j))
+						{
+							double grad_diff=Gmaxn_i-G[j];
+							if (-G[j] >= Gmaxn2)
+								Gmaxn2 = -G[j];
+							if (grad_diff > 0)
+							{
+								double obj_diff;
+								double quad_coef = QD[in]+QD[j]-2*Q_in[j];
+								if (quad_coef > 0)
+									obj_diff = -(grad_diff*grad_diff)/quad_coef;
+								else
+									obj_diff = -(grad_diff*grad_diff)/1e-12;
+
+								if (obj_diff <= obj_diff_min)
+								{
+									Gmin_idx=j;
+									obj_diff_min = obj_diff;
+								}
+							}
+						}
+					}
+				}
+				chunk_Gmax2[c] = Gmaxp2;
+				chunk_Gmaxn2[c] = Gmaxn2;
+				chunk_Gmin_idx[c] = Gmin_idx;
+				chunk_obj_diff[c] = obj_diff_min;
+			}
+		});
+
+		double Gmaxp2 = -INF;
+		double Gmaxn2 = -INF;
+		int Gmin_idx = -1;
+		double obj_diff_min = INF;
+		for(int c=0;c<nr_thread;c++)
+		{
+			if(chunk_Gmax2[c] >= Gmaxp2)
+				Gmaxp2 = chunk_Gmax2[c];
+			if(chunk_Gmaxn2[c] >= Gmaxn2)
+				Gmaxn2 = chunk_Gmaxn2[c];
+			if(chunk_Gmin_idx[c] != -1 && chunk_obj_diff[c] <= obj_diff_min)
+			{
+				Gmin_idx = chunk_Gmin_idx[c];
+				obj_diff_min = chunk_obj_diff[c];
+			}
+		}
+
+		if(Math.max(Gmaxp+Gmaxp2,Gmaxn+Gmaxn2) < eps || Gmin_idx == -1)
+			return 1;
+
+		if(y[Gmin_idx] == +1)
+			working_set[0] = Gmaxp_idx;
+		else
+			working_set[0] = Gmaxn_idx;
+		working_set[1] = Gmin_idx;
+
+		return 0;
+	}
+
 	private boolean be_shrunk(int i, double Gmax1, double Gmax2, double Gmax3, double Gmax4)
 	{
 		if(is_upper_bound(i))
@@ -188,6 +372,16 @@ public final class SolverNU extends Solver
 			active_size = l;
 		}
 
+		if(shrink_policy != null)
+		{
+			shrink_policy.scanned(active_size);
+			double margin = shrink_policy.margin*Math.max(Math.max(Gmax1+Gmax2,Gmax3+Gmax4),0);
+			Gmax1 += margin;
+			Gmax2 += margin;
+			Gmax3 += margin;
+			Gmax4 += margin;
+		}
+
 		for(i=0;i<active_size;i++)
 			if (be_shrunk(i, Gmax1, Gmax2, Gmax3, Gmax4))
 			{
@@ -253,4 +447,40 @@ public final class SolverNU extends Solver
 		si.r = (r1+r2)/2;
 		return (r1-r2)/2;
 	}
+
+	// the violation select_working_set compares with eps
+	double max_violation()
+	{
+		double Gmaxp = -INF, Gmaxp2 = -INF;
+		double Gmaxn = -INF, Gmaxn2 = -INF;
+		for(int t=0;t<active_size;t++)
+			if(y[t]==+1)
+			{
+				if(!is_upper_bound(t))
+					Gmaxp = Math.max(Gmaxp,-G[t]);
+				if(!is_lower_bound(t))
+					Gmaxp2 = Math.max(Gmaxp2,G[t]);
+			}
+			else
+			{
+				if(!is_lower_bound(t))
+					Gmaxn = Math.max(Gmaxn,G[t]);
+				if(!is_upper_bound(t))
+					Gmaxn2 = Math.max(Gmaxn2,-G[t]);
+			}
+		return Math.max(Gmaxp+Gmaxp2,Gmaxn+Gmaxn2);
+	}
+
+	// as in Solver, with the multiplier of each class: r1 = r+rho, r2 = r-rho
+	double duality_gap(double rho)
+	{
+		double r1 = si.r+rho, r2 = si.r-rho;
+		double gap = 0;
+		for(int t=0;t<active_size;t++)
+		{
+			double r = G[t] - (y[t]==+1 ? r1 : r2);
+			gap += (r > 0) ? r*alpha[t] : r*(alpha[t]-get_C(t));
+		}
+		return gap;
+	}
 }
@@ -0,0 +1,57 @@
+package algorithm;
+
+/**
+ * State of a solver run handed to a SolverListener.
+ */
+public class SolverProgress {
+	/**
+	 * Number of the run, counting all runs of the process from 1
+	 */
+	public long run;
+
+	/**
+	 * Number of variables of the problem
+	 */
+	public int l;
+
+	/**
+	 * Iterations done so far
+	 */
+	public int iter;
+
+	/**
+	 * Maximal violation of the optimality conditions, m(alpha) - M(alpha) over
+	 * the active set; the run stops when it is below eps
+	 */
+	public double violation;
+
+	/**
+	 * Number of variables not removed by shrinking
+	 */
+	public int active_size;
+
+	/**
+	 * Free support vectors (0 < alpha < C)
+	 */
+	public int nr_free;
+
+	/**
+	 * Bounded support vectors (alpha = C)
+	 */
+	public int nr_bounded;
+
+	/**
+	 * Fraction of the kernel columns found in the cache, NaN without a cache
+	 */
+	public double cache_hit_rate;
+
+	/**
+	 * Seconds since the run started
+	 */
+	public double seconds;
+
+	/**
+	 * Whether this is the final call of the run
+	 */
+	public boolean finished;
+}
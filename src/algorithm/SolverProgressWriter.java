@@ -0,0 +1,70 @@
+package algorithm;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * SolverListener writing one line per call, either CSV with a header line or
+ * JSON objects (one per line). Lines are flushed as they are written, so a
+ * file can be followed during a long training.
+ */
+public class SolverProgressWriter implements SolverListener {
+	private static final String[] FIELDS = { "run", "iter", "violation", "active_size", "l",
+			"nr_free", "nr_bounded", "cache_hit_rate", "seconds", "finished" };
+
+	private final Writer out;
+	private final boolean json;
+	private boolean header;
+
+	public SolverProgressWriter(Writer out, boolean json) {
+		this.out = out;
+		this.json = json;
+	}
+
+	public synchronized void progress(SolverProgress p) {
+		Object[] values = { p.run, p.iter, p.violation, p.active_size, p.l, p.nr_free,
+				p.nr_bounded, p.cache_hit_rate, p.seconds, p.finished };
+		StringBuilder line = new StringBuilder();
+		if (json) {
+			line.append('{');
+			for (int k = 0; k < FIELDS.length; k++) {
+				if (k > 0)
+					line.append(',');
+				line.append('"').append(FIELDS[k]).append("\":").append(json_value(values[k]));
+			}
+			line.append("}\n");
+		} else {
+			if (!header) {
+				for (int k = 0; k < FIELDS.length; k++)
+					line.append(k > 0 ? "," : "").append(FIELDS[k]);
+				line.append('\n');
+				header = true;
+			}
+			for (int k = 0; k < values.length; k++)
+				line.append(k > 0 ? "," : "").append(values[k] instanceof Boolean
+						? (((Boolean) values[k]) ? "1" : "0") : format(values[k]));
+			line.append('\n');
+		}
+
+		try {
+			out.write(line.toString());
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String format(Object value) {
+		if (value instanceof Double)
+			return String.format(Locale.ROOT, "%.6g", (Double) value);
+		return value.toString();
+	}
+
+	// JSON has no NaN or infinity
+	private static String json_value(Object value) {
+		if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite()))
+			return "null";
+		return format(value);
+	}
+}
@@ -0,0 +1,165 @@
+package algorithm;
+
+import java.util.Arrays;
+
+/**
+ * Kernel cache of thresholded sparse columns: entries with |Q_ij| < eps are
+ * dropped, which pays off for RBF kernels with a large gamma where most values
+ * underflow to (almost) zero. Memory and the gradient updates through
+ * add_column are then proportional to the number of significant neighbors.
+ *
+ * Columns are always computed over all l rows and stored by a label that
+ * follows the sample through swap_index, so shrinking does not invalidate
+ * them. size is the cache size limit in bytes; an entry takes 8 bytes.
+ */
+public class SparseCache {
+	private final int l;
+	private final double eps;
+	private long size;
+
+	private final int[] label; // label of the sample now at position i
+	private final int[] where; // position of the sample with label a
+
+	// columns by label: labels of the kept rows and their values
+	private final int[][] index;
+	private final float[][] value;
+
+	// lru list over labels, l is the list head
+	private final int[] prev;
+	private final int[] next;
+
+	public SparseCache(int l_, long size_, double eps_) {
+		l = l_;
+		eps = eps_;
+		size = size_ / 8;
+		size -= l * (32 / 8); // label, where, prev, next and two references
+		size = Math.max(size, 2 * (long) l); // cache must be large enough for
+												// two columns
+		label = new int[l];
+		where = new int[l];
+		for (int i = 0; i < l; i++) {
+			label[i] = i;
+			where[i] = i;
+		}
+		index = new int[l][];
+		value = new float[l][];
+		prev = new int[l + 1];
+		next = new int[l + 1];
+		prev[l] = next[l] = l;
+	}
+
+	private void lru_delete(int a) {
+		next[prev[a]] = next[a];
+		prev[next[a]] = prev[a];
+	}
+
+	private void lru_insert(int a) {
+		// insert to last position
+		next[a] = l;
+		prev[a] = prev[l];
+		next[prev[a]] = a;
+		prev[l] = a;
+	}
+
+	// whether column i is cached; a hit also refreshes its lru position
+	public boolean contains(int i) {
+		int a = label[i];
+		if (index[a] == null)
+			return false;
+		lru_delete(a);
+		lru_insert(a);
+		return true;
+	}
+
+	// store column i from the dense data[0,l), dropping |data[j]| < eps
+	// (the diagonal is always kept)
+	public void put(int i, float[] data) {
+		int a = label[i];
+		int nnz = 0;
+		for (int b = 0; b < l; b++) {
+			float v = data[where[b]];
+			if (Math.abs(v) >= eps || b == a)
+				nnz++;
+		}
+
+		while (size < nnz && next[l] != l) {
+			int old = next[l];
+			lru_delete(old);
+			size += index[old].length;
+			index[old] = null;
+			value[old] = null;
+		}
+
+		int[] new_index = new int[nnz];
+		float[] new_value = new float[nnz];
+		int k = 0;
+		for (int b = 0; b < l; b++) {
+			float v = data[where[b]];
+			if (Math.abs(v) >= eps || b == a) {
+				new_index[k] = b;
+				new_value[k] = v;
+				k++;
+			}
+		}
+		index[a] = new_index;
+		value[a] = new_value;
+		size -= nnz;
+		lru_insert(a);
+	}
+
+	// scatter a cached column i into the dense buf[0,len)
+	public void get_dense(int i, float[] buf, int len) {
+		int a = label[i];
+		int[] idx = index[a];
+		float[] val = value[a];
+		for (int j = 0; j < len; j++)
+			buf[j] = 0;
+		for (int k = 0; k < idx.length; k++) {
+			int j = where[idx[k]];
+			if (j < len)
+				buf[j] = val[k];
+		}
+	}
+
+	// entry j of a cached column i, 0 if it was dropped
+	// (the kept rows of a column are in label order)
+	public float get_entry(int i, int j) {
+		int a = label[i];
+		int k = Arrays.binarySearch(index[a], label[j]);
+		return (k >= 0) ? value[a][k] : 0;
+	}
+
+	// G[k] += coef * Q[i][k] for k in [begin,end) on a cached column i
+	public void add_column(int i, double coef, double[] G, int begin, int end) {
+		add_column(i, coef, G, begin, end, null);
+	}
+
+	// add_column that also puts the changed rows into rows (if not null)
+	// return their number
+	public int add_column(int i, double coef, double[] G, int begin, int end, int[] rows) {
+		int a = label[i];
+		int[] idx = index[a];
+		float[] val = value[a];
+		int n = 0;
+		for (int k = 0; k < idx.length; k++) {
+			int j = where[idx[k]];
+			if (j >= begin && j < end) {
+				G[j] += coef * val[k];
+				if (rows != null)
+					rows[n] = j;
+				n++;
+			}
+		}
+		return n;
+	}
+
+	public void swap_index(int i, int j) {
+		do {
+			int tmp = label[i];
+			label[i] = label[j];
+			label[j] = tmp;
+		} while (false);
+		where[label[i]] = i;
+		where[label[j]] = j;
+	}
+}
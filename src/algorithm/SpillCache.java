@@ -0,0 +1,228 @@
+package algorithm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Second tier of the kernel cache: columns evicted from Cache are written to
+ * a memory-mapped scratch file and promoted back on the next request.
+ *
+ * Each slot holds l floats indexed by a label that follows the sample through
+ * swap_index, so shrinking never touches the file. A spilled column keeps the
+ * entries of the rows it covered when it was evicted; the other labels hold
+ * NaN and restore returns the longest prefix of current rows that is covered.
+ *
+ * Java cannot unmap a file, so close() does not give the mapping back to the
+ * system but to a pool, and the next create() of the same size takes it from
+ * there. A training that builds many kernel matrices one after the other
+ * (pairs, folds, partitions) then maps the file once per matrix alive at the
+ * same time, not once per matrix.
+ */
+class SpillCache {
+	private static final long MAX_REGION = 1 << 30; // bytes per mapped region
+
+	// a scratch file mapped in regions of MAX_REGION bytes, the last one shorter
+	private static final class mapping {
+		final long size;
+		final ByteBuffer[] region;
+
+		mapping(long size, ByteBuffer[] region) {
+			this.size = size;
+			this.region = region;
+		}
+	}
+
+	// mappings of closed caches, at most MAX_IDLE of them
+	private static final ArrayList<mapping> idle = new ArrayList<mapping>();
+	private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors();
+
+	private final int l;
+	private final int nr_slot;
+	private final int slots_per_region;
+	private mapping map;
+	private final FloatBuffer[] region;
+
+	private final int[] label; // label of the sample now at position i
+	private final int[] slot_of; // slot of column i, -1 if not spilled
+	private final int[] owner; // column in slot s, -1 if free
+	private final int[] free_slot;
+	private int nr_free;
+	private int hand; // next slot to evict when none is free
+
+	private final float[] scratch;
+
+	private SpillCache(int l_, mapping map_) {
+		l = l_;
+		map = map_;
+		long slot_bytes = 4L * l;
+		// all regions but the last have the size of the first
+		slots_per_region = (int) (map.region[0].capacity() / slot_bytes);
+		int nr_region = map.region.length;
+		long last = map.region[nr_region - 1].capacity() / slot_bytes;
+		nr_slot = (int) Math.min((long) (nr_region - 1) * slots_per_region + last,
+				Integer.MAX_VALUE);
+		// every instance needs its own positions
+		region = new FloatBuffer[nr_region];
+		for (int r = 0; r < nr_region; r++)
+			region[r] = map.region[r].duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+		label = new int[l];
+		slot_of = new int[l];
+		for (int i = 0; i < l; i++) {
+			label[i] = i;
+			slot_of[i] = -1;
+		}
+		owner = new int[nr_slot];
+		free_slot = new int[nr_slot];
+		for (int s = 0; s < nr_slot; s++) {
+			owner[s] = -1;
+			free_slot[s] = nr_slot - 1 - s;
+		}
+		nr_free = nr_slot;
+		hand = 0;
+		scratch = new float[l];
+	}
+
+	// a scratch file of size bytes in directory tmpdir (null for the default
+	// temporary directory), an idle mapping of that size if there is one
+	// return null if it is too small for one column or cannot be created
+	static SpillCache create(int l, long size, File tmpdir) {
+		long slot_bytes = 4L * l;
+		if (slot_bytes > MAX_REGION || size < slot_bytes)
+			return null;
+
+		synchronized (idle) {
+			for (int k = idle.size() - 1; k >= 0; k--)
+				if (idle.get(k).size == size && idle.get(k).region[0].capacity() >= slot_bytes)
+					return new SpillCache(l, idle.remove(k));
+		}
+
+		// regions hold whole slots
+		long region_bytes = MAX_REGION / slot_bytes * slot_bytes;
+		int nr_region = (int) ((size + region_bytes - 1) / region_bytes);
+		try {
+			File file = File.createTempFile("svm_cache", ".tmp", tmpdir);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer[] region = new ByteBuffer[nr_region];
+				for (int r = 0; r < nr_region; r++) {
+					long start = r * region_bytes;
+					region[r] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+							Math.min(region_bytes, size - start));
+				}
+				return new SpillCache(l, new mapping(size, region));
+			} finally {
+				raf.close();
+				// the mapping stays valid after the file is unlinked
+				if (!file.delete())
+					file.deleteOnExit();
+			}
+		} catch (IOException e) {
+			System.err.print("WARNING: cannot create cache spill file: " + e.getMessage() + "\n");
+			return null;
+		}
+	}
+
+	// give the mapping to the next create(); the cache is empty afterwards
+	// and spills nothing
+	void close() {
+		if (map == null)
+			return;
+		clear();
+		nr_free = 0;
+		synchronized (idle) {
+			if (idle.size() < MAX_IDLE)
+				idle.add(map);
+		}
+		map = null;
+	}
+
+	private FloatBuffer seek(int s) {
+		FloatBuffer b = region[s / slots_per_region];
+		b.position((s % slots_per_region) * l);
+		return b;
+	}
+
+	boolean contains(int index) {
+		return slot_of[index] >= 0;
+	}
+
+	private void release(int s) {
+		slot_of[owner[s]] = -1;
+		owner[s] = -1;
+		free_slot[nr_free++] = s;
+	}
+
+	// write rows [0,len) of column index
+	void spill(int index, float[] data, int len) {
+		if (map == null)
+			return;
+		int s = slot_of[index];
+		if (s < 0) {
+			if (nr_free == 0) {
+				while (owner[hand] < 0)
+					hand = (hand + 1) % nr_slot;
+				release(hand);
+				hand = (hand + 1) % nr_slot;
+			}
+			s = free_slot[--nr_free];
+			owner[s] = index;
+			slot_of[index] = s;
+		}
+
+		Arrays.fill(scratch, Float.NaN);
+		for (int j = 0; j < len; j++)
+			scratch[label[j]] = data[j];
+		seek(s).put(scratch, 0, l);
+	}
+
+	// read column index into data[0,len) and free its slot
+	// return the number of leading rows restored
+	int restore(int index, float[] data, int len) {
+		int s = slot_of[index];
+		if (s < 0)
+			return 0;
+		seek(s).get(scratch, 0, l);
+		release(s);
+
+		int j;
+		for (j = 0; j < len; j++) {
+			float value = scratch[label[j]];
+			if (Float.isNaN(value))
+				break;
+			data[j] = value;
+		}
+		return j;
+	}
+
+	void swap_index(int i, int j) {
+		do {
+			int tmp = label[i];
+			label[i] = label[j];
+			label[j] = tmp;
+		} while (false);
+		do {
+			int tmp = slot_of[i];
+			slot_of[i] = slot_of[j];
+			slot_of[j] = tmp;
+		} while (false);
+		if (slot_of[i] >= 0)
+			owner[slot_of[i]] = i;
+		if (slot_of[j] >= 0)
+			owner[slot_of[j]] = j;
+	}
+
+	void clear() {
+		for (int s = 0; s < nr_slot; s++)
+			if (owner[s] >= 0)
+				release(s);
+	}
+}
@@ -0,0 +1,98 @@
+package algorithm;
+
+//
+//Solver for the subproblem of a working set B with q > 2 variables
+//
+//	min 0.5(\alpha_B^T Q_BB \alpha_B) + (G_B - Q_BB \alpha_B^k)^T \alpha_B
+//
+//		y_B^T \alpha_B = y_B^T \alpha_B^k
+//		0 <= alpha_t <= Cp or Cn
+//
+//which is solved by SMO on the dense q*q matrix Q_BB, starting from the
+//current \alpha_B^k; load fills the data and solve leaves the result in alpha
+//
+final class SubproblemSolver extends Solver {
+	private final float[][] Q_BB;
+
+	// the q*q matrix as a QMatrix without a cache
+	private final class DenseQ extends QMatrix {
+		public float[] get_Q(int column, int len) {
+			return Q_BB[column];
+		}
+
+		public double[] get_QD() {
+			return QD;
+		}
+
+		// rows and columns of Q_BB, and QD, as the Q matrices of the kernels
+		public void swap_index(int i, int j) {
+			do {
+				float[] tmp = Q_BB[i];
+				Q_BB[i] = Q_BB[j];
+				Q_BB[j] = tmp;
+			} while (false);
+			for (float[] row : Q_BB)
+				do {
+					float tmp = row[i];
+					row[i] = row[j];
+					row[j] = tmp;
+				} while (false);
+			do {
+				double tmp = QD[i];
+				QD[i] = QD[j];
+				QD[j] = tmp;
+			} while (false);
+		}
+	}
+
+	SubproblemSolver(int q_max, double Cp, double Cn) {
+		Q_BB = new float[q_max][q_max];
+		y = new byte[q_max];
+		G = new double[q_max];
+		alpha = new double[q_max];
+		alpha_status = new byte[q_max];
+		QD = new double[q_max];
+		Q = new DenseQ();
+		this.Cp = Cp;
+		this.Cn = Cn;
+	}
+
+	// take the working set index[0,q) of solver s with its columns
+	void load(Solver s, int[] index, int q, float[][] column) {
+		active_size = q;
+		for (int a = 0; a < q; a++) {
+			int t = index[a];
+			for (int b = 0; b < q; b++)
+				Q_BB[a][b] = column[a][index[b]];
+			y[a] = s.y[t];
+			G[a] = s.G[t];
+			alpha[a] = s.alpha[t];
+			QD[a] = s.QD[t];
+			update_alpha_status(a);
+		}
+	}
+
+	// return the number of iterations
+	int solve(double eps, int max_iter) {
+		this.eps = eps;
+		int[] working_set = new int[2];
+		int iter = 0;
+		while (iter < max_iter && select_working_set(working_set) == 0) {
+			int i = working_set[0];
+			int j = working_set[1];
+			float[] Q_i = Q_BB[i];
+			float[] Q_j = Q_BB[j];
+
+			double old_alpha_i = alpha[i];
+			double old_alpha_j = alpha[j];
+			solve_pair(i, j, Q_i[j]);
+			double delta_alpha_i = alpha[i] - old_alpha_i;
+			double delta_alpha_j = alpha[j] - old_alpha_j;
+			axpy2(Q_i, delta_alpha_i, Q_j, delta_alpha_j, G, 0, active_size);
+			update_alpha_status(i);
+			update_alpha_status(j);
+			++iter;
+		}
+		return iter;
+	}
+}
@@ -0,0 +1,92 @@
+package algorithm;
+
+import datamodel.Parameters;
+
+/**
+ * Budget and cancellation of one training. The solvers of all sub-problems of
+ * the training (one-vs-one pairs, folds, probability estimates) look up the
+ * control of their thread and stop early when it has been cancelled or its
+ * deadline has passed; Parameters.maxIterations limits each of them as well.
+ * A stopped solver still returns its current, feasible alphas, so the model
+ * is valid, only less accurate.
+ *
+ * After the training the control tells whether any solver stopped before
+ * reaching eps, and the largest duality gap estimate of its solutions.
+ *
+ * cancel may be called from any thread. The solvers only check the control
+ * every few hundred iterations, so it takes effect with a short delay.
+ */
+public class TrainingControl {
+	private static final ThreadLocal<TrainingControl> current = new ThreadLocal<TrainingControl>();
+
+	private volatile boolean cancelled;
+	private volatile boolean timed;
+	private volatile long deadline; // System.nanoTime() when timed
+
+	private boolean stopped;
+	private double gap;
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean is_cancelled() {
+		return cancelled;
+	}
+
+	// whether a solver stopped on the budget or by cancel before reaching eps
+	public synchronized boolean stopped_early() {
+		return stopped;
+	}
+
+	// largest duality gap estimate of the solutions reported so far
+	public synchronized double duality_gap() {
+		return gap;
+	}
+
+	// attach control (or a new one if null) to the current thread, with the
+	// deadline of param.timeLimit from now
+	// return null if there is nothing to control or a training is already
+	// running on this thread, so nested trainings use the outer control
+	public static TrainingControl open(Parameters param, TrainingControl control) {
+		if (current.get() != null)
+			return null;
+		if (control == null) {
+			if (param.timeLimit <= 0)
+				return null;
+			control = new TrainingControl();
+		}
+		if (param.timeLimit > 0) {
+			control.deadline = System.nanoTime() + (long) (param.timeLimit * 1e9);
+			control.timed = true;
+		}
+		current.set(control);
+		return control;
+	}
+
+	// make an open control visible to a worker thread (null to detach)
+	public static void attach(TrainingControl control) {
+		if (control == null)
+			current.remove();
+		else
+			current.set(control);
+	}
+
+	public static TrainingControl current() {
+		return current.get();
+	}
+
+	public void close() {
+		if (current.get() == this)
+			current.remove();
+	}
+
+	boolean should_stop() {
+		return cancelled || (timed && System.nanoTime() - deadline > 0);
+	}
+
+	synchronized void report(double gap, boolean stopped) {
+		this.gap = Math.max(this.gap, gap);
+		this.stopped |= stopped;
+	}
+}
@@ -0,0 +1,106 @@
+package algorithm;
+
+/**
+ * Block maxima of the violations over the active set, used by Solver to pick
+ * the working set without scanning every variable.
+ *
+ * [0,active_size) is cut into blocks of BLOCK variables. For each block the
+ * index keeps the largest -y_t*G_t over I_up (and where it is) and the largest
+ * y_t*G_t over I_low. Solver refreshes a block right after updating its part
+ * of the gradient, so i and the stopping criterion come from the nr_block
+ * maxima, and j is only searched in the blocks with the largest violations.
+ *
+ * Any other change of G, alpha_status or the order of the variables has to
+ * call invalidate; the index is then rebuilt at the next selection.
+ */
+class ViolatorIndex {
+	static final int BLOCK = 64;
+	private static final double INF = java.lang.Double.POSITIVE_INFINITY;
+
+	int size; // active_size the blocks were built for, -1 if invalid
+	int nr_block;
+	final double[] up_max;
+	final int[] up_idx;
+	final double[] low_max;
+
+	ViolatorIndex(int l) {
+		int n = (l + BLOCK - 1) / BLOCK;
+		up_max = new double[n];
+		up_idx = new int[n];
+		low_max = new double[n];
+		size = -1;
+	}
+
+	void invalidate() {
+		size = -1;
+	}
+
+	boolean is_valid(int active_size) {
+		return size == active_size;
+	}
+
+	// refresh block b from the solver state
+	void update_block(Solver s, int b) {
+		int begin = b * BLOCK;
+		int end = Math.min(begin + BLOCK, size);
+		byte[] y = s.y;
+		double[] G = s.G;
+		byte[] status = s.alpha_status;
+
+		double Gmax = -INF;
+		int Gmax_idx = -1;
+		double Gmax2 = -INF;
+		for (int t = begin; t < end; t++)
+			if (y[t] == +1) {
+				if (status[t] != Solver.UPPER_BOUND && -G[t] >= Gmax) {
+					Gmax = -G[t];
+					Gmax_idx = t;
+				}
+				if (status[t] != Solver.LOWER_BOUND && G[t] >= Gmax2)
+					Gmax2 = G[t];
+			} else {
+				if (status[t] != Solver.LOWER_BOUND && G[t] >= Gmax) {
+					Gmax = G[t];
+					Gmax_idx = t;
+				}
+				if (status[t] != Solver.UPPER_BOUND && -G[t] >= Gmax2)
+					Gmax2 = -G[t];
+			}
+		up_max[b] = Gmax;
+		up_idx[b] = Gmax_idx;
+		low_max[b] = Gmax2;
+	}
+
+	void rebuild(Solver s) {
+		size = s.active_size;
+		nr_block = (size + BLOCK - 1) / BLOCK;
+		for (int b = 0; b < nr_block; b++)
+			update_block(s, b);
+	}
+
+	// return the nr_candidate blocks with the largest low_max in block order
+	// (all blocks if there are not more than that)
+	int select_blocks(int[] candidate, int nr_candidate) {
+		if (nr_block <= nr_candidate) {
+			for (int b = 0; b < nr_block; b++)
+				candidate[b] = b;
+			return nr_block;
+		}
+
+		// insertion into candidate[0,n) kept sorted by decreasing low_max
+		int n = 0;
+		for (int b = 0; b < nr_block; b++) {
+			double v = low_max[b];
+			if (n == nr_candidate && v <= low_max[candidate[n - 1]])
+				continue;
+			int k = (n < nr_candidate) ? n++ : n - 1;
+			while (k > 0 && low_max[candidate[k - 1]] < v) {
+				candidate[k] = candidate[k - 1];
+				k--;
+			}
+			candidate[k] = b;
+		}
+		java.util.Arrays.sort(candidate, 0, n);
+		return n;
+	}
+}
@@ -0,0 +1,194 @@
+package algorithm.kernel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import algorithm.Parallel;
+import algorithm.SVM;
+import datamodel.Node;
+import datamodel.Parameters;
+
+/**
+ * Precomputes the whole l*l matrix (Q_ij = y_i*y_j*K(x_i,x_j), or K when y is
+ * null) for problems small enough to keep it in memory. The Q matrices then
+ * take their columns from it instead of going through Cache.
+ *
+ * The matrix stays in the original order of the samples. Shrinking only
+ * permutes the index perm of the Q matrix, and row() gathers a column in the
+ * current order (or returns the row itself while nothing is permuted).
+ *
+ * The upper triangle is cut into square tiles handed out to the threads. For
+ * kernels on dot products the data is copied into a dense row-major matrix and
+ * every tile is computed with a 1x4 register-blocked micro kernel. Each dot
+ * product still adds the features in index order, so the values are
+ * bit-identical to Kernel.kernel_function.
+ */
+class GramMatrix {
+	// dense copies larger than this fall back to the sparse kernel
+	private static final long MAX_DENSE_BYTES = 1L << 30;
+
+	private GramMatrix() {
+	}
+
+	// whether the matrix of l columns should be precomputed for param
+	// (with -k 1 also beyond the cache size, but not beyond half the heap)
+	static boolean enabled(int l, Parameters param) {
+		if (param.fullKernel < 0 || param.sparseEpsilon > 0 || param.halfCache == 1)
+			return false;
+		double bytes = 4.0 * l * l;
+		if (bytes <= param.cacheSize * (1 << 20))
+			return true;
+		if (param.fullKernel == 0)
+			return false;
+		long mb = (long) (bytes / (1 << 20));
+		if (bytes > 0.5 * Runtime.getRuntime().maxMemory()) {
+			SVM.info("WARNING: the kernel matrix needs " + mb
+					+ " MB, more than half the heap; using the kernel cache\n");
+			return false;
+		}
+		SVM.info("WARNING: the kernel matrix takes " + mb + " MB, more than the cache size\n");
+		return true;
+	}
+
+	static float[][] compute(final Kernel kernel, final byte[] y, Parameters param) {
+		final int l = kernel.x.length;
+		final float[][] Q = new float[l][l];
+		long start = System.nanoTime();
+
+		int dim = (kernel.kernel_type == Parameters.PRECOMPUTED) ? -1 : dense_dimension(kernel.x);
+		final double[][] dense = (dim >= 0 && (long) l * dim * 8 <= MAX_DENSE_BYTES)
+				? densify(kernel.x, dim)
+				: null;
+		// rows of a tile should stay in the L2 cache while the tile is done
+		final int block = (dense == null) ? 64
+				: Math.max(16, Math.min(256, (1 << 15) / Math.max(dim, 1)));
+		final int nr_block = (l + block - 1) / block;
+		final int nr_tile = nr_block * (nr_block + 1) / 2;
+		final AtomicInteger next_tile = new AtomicInteger();
+		int nr_thread = Parallel.nr_thread(param.nrThreads);
+
+		Parallel.run(nr_thread, nr_thread, new Parallel.Loop() {
+			public void run(int chunk, int begin, int end) {
+				double[] dots = new double[4];
+				int t;
+				while ((t = next_tile.getAndIncrement()) < nr_tile) {
+					// tile t -> (bi, bj) with bi <= bj, row by row
+					int bi = 0, row = nr_block;
+					while (t >= row) {
+						t -= row;
+						bi++;
+						row--;
+					}
+					int bj = bi + t;
+					if (dense != null)
+						dense_tile(kernel, dense, y, Q, bi * block, Math.min(l, (bi + 1) * block),
+								bj * block, Math.min(l, (bj + 1) * block), dots);
+					else
+						sparse_tile(kernel, y, Q, bi * block, Math.min(l, (bi + 1) * block),
+								bj * block, Math.min(l, (bj + 1) * block));
+				}
+			}
+		});
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		if (dense != null) {
+			double flops = (double) l * (l + 1) * dim;
+			SVM.info("kernel matrix " + l + "x" + l + " computed in " + seconds + " s, "
+					+ flops / seconds / 1e9 + " GFLOP/s\n");
+		} else
+			SVM.info("kernel matrix " + l + "x" + l + " computed in " + seconds + " s\n");
+		return Q;
+	}
+
+	// return the dense dimension for kernels on dot products, -1 if the
+	// sparse kernel has to be used
+	private static int dense_dimension(Node[][] x) {
+		int dim = 0;
+		for (Node[] row : x)
+			for (Node node : row) {
+				if (node.index < 0)
+					return -1;
+				dim = Math.max(dim, node.index + 1);
+			}
+		return dim;
+	}
+
+	private static double[][] densify(Node[][] x, int dim) {
+		double[][] dense = new double[x.length][dim];
+		for (int i = 0; i < x.length; i++)
+			for (Node node : x[i])
+				dense[i][node.index] = node.value;
+		return dense;
+	}
+
+	private static void store(float[][] Q, byte[] y, int i, int j, double k) {
+		float value = (float) ((y == null) ? k : y[i] * y[j] * k);
+		Q[i][j] = value;
+		Q[j][i] = value;
+	}
+
+	private static void dense_tile(Kernel kernel, double[][] dense, byte[] y, float[][] Q,
+			int i0, int i1, int j0, int j1, double[] dots) {
+		for (int i = i0; i < i1; i++) {
+			double[] xi = dense[i];
+			int dim = xi.length;
+			int j = Math.max(j0, i);
+			for (; j + 4 <= j1; j += 4) {
+				double[] x0 = dense[j], x1 = dense[j + 1], x2 = dense[j + 2], x3 = dense[j + 3];
+				double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+				for (int k = 0; k < dim; k++) {
+					double v = xi[k];
+					s0 += v * x0[k];
+					s1 += v * x1[k];
+					s2 += v * x2[k];
+					s3 += v * x3[k];
+				}
+				dots[0] = s0;
+				dots[1] = s1;
+				dots[2] = s2;
+				dots[3] = s3;
+				for (int t = 0; t < 4; t++)
+					store(Q, y, i, j + t, kernel.kernel_of_dot(i, j + t, dots[t]));
+			}
+			for (; j < j1; j++) {
+				double[] xj = dense[j];
+				double s = 0;
+				for (int k = 0; k < dim; k++)
+					s += xi[k] * xj[k];
+				store(Q, y, i, j, kernel.kernel_of_dot(i, j, s));
+			}
+		}
+	}
+
+	private static void sparse_tile(Kernel kernel, byte[] y, float[][] Q, int i0, int i1, int j0,
+			int j1) {
+		for (int i = i0; i < i1; i++)
+			for (int j = Math.max(j0, i); j < j1; j++)
+				store(Q, y, i, j, kernel.compute_kernel(i, j));
+	}
+
+	// column i over [0,len) in the current order, perm[k] being the original
+	// index of variable k (null while nothing is permuted)
+	static float[] row(float[][] Q, int[] perm, int i, int len, float[] buf) {
+		if (perm == null)
+			return Q[i];
+		float[] row = Q[perm[i]];
+		for (int j = 0; j < len; j++)
+			buf[j] = row[perm[j]];
+		return buf;
+	}
+
+	// perm after Kernel.swap_index(i, j), allocated on the first swap
+	static int[] swap_index(int[] perm, int l, int i, int j) {
+		if (perm == null) {
+			perm = new int[l];
+			for (int k = 0; k < l; k++)
+				perm[k] = k;
+		}
+		do {
+			int tmp = perm[i];
+			perm[i] = perm[j];
+			perm[j] = tmp;
+		} while (false);
+		return perm;
+	}
+}
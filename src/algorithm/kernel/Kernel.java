@@ -1,6 +1,9 @@
 package algorithm.kernel;
 
+import algorithm.Cache;
+import algorithm.Parallel;
 import algorithm.QMatrix;
+import algorithm.SessionCache;
 import datamodel.Node;
 import datamodel.Parameters;
 
@@ -20,6 +23,14 @@ public abstract class Kernel extends QMatrix {
 	protected final double gamma;
 	protected final double coef0;
 
+	// kernel values shared with the other sub-problems of a training session
+	private final SessionCache session;
+	private final int[] session_index;
+
+	private final int nr_thread;
+	private float[][] batch;
+	private static final int MIN_PARALLEL_ROWS = 256;
+
 	public abstract float[] get_Q(int column, int len);
 
 	public abstract double[] get_QD();
@@ -30,6 +41,12 @@ public abstract class Kernel extends QMatrix {
 			x[i] = x[j];
 			x[j] = tmp;
 		} while (false);
+		if (session != null)
+			do {
+				int tmp = session_index[i];
+				session_index[i] = session_index[j];
+				session_index[j] = tmp;
+			} while (false);
 		if (x_square != null)
 			do {
 				double tmp = x_square[i];
@@ -38,6 +55,12 @@ public abstract class Kernel extends QMatrix {
 			} while (false);
 	}
 
+	// K(x_i,x_j) == K(x_j,x_i) bit for bit, so cached columns can be
+	// transposed; a precomputed matrix is used as given
+	protected boolean is_symmetric() {
+		return kernel_type != Parameters.PRECOMPUTED;
+	}
+
 	protected static double powi(double base, int times) {
 		double tmp = base, ret = 1.0;
 
@@ -50,17 +73,36 @@ public abstract class Kernel extends QMatrix {
 	}
 
 	double kernel_function(int i, int j) {
+		if (session == null || i == j)
+			return compute_kernel(i, j);
+
+		int a = session_index[i];
+		int b = session_index[j];
+		float value = session.get(a, b);
+		if (!Float.isNaN(value))
+			return value;
+		double k = compute_kernel(i, j);
+		session.put(a, b, (float) k);
+		return k;
+	}
+
+	double compute_kernel(int i, int j) {
+		if (kernel_type == Parameters.PRECOMPUTED)
+			return x[i][(int) (x[j][0].value)].value;
+		return kernel_of_dot(i, j, dot(x[i], x[j]));
+	}
+
+	// kernel value of x_i and x_j given their dot product
+	double kernel_of_dot(int i, int j, double dot) {
 		switch (kernel_type) {
 		case Parameters.LINEAR:
-			return dot(x[i], x[j]);
+			return dot;
 		case Parameters.POLY:
-			return powi(gamma * dot(x[i], x[j]) + coef0, degree);
+			return powi(gamma * dot + coef0, degree);
 		case Parameters.RBF:
-			return Math.exp(-gamma * (x_square[i] + x_square[j] - 2 * dot(x[i], x[j])));
+			return Math.exp(-gamma * (x_square[i] + x_square[j] - 2 * dot));
 		case Parameters.SIGMOID:
-			return Math.tanh(gamma * dot(x[i], x[j]) + coef0);
-		case Parameters.PRECOMPUTED:
-			return x[i][(int) (x[j][0].value)].value;
+			return Math.tanh(gamma * dot + coef0);
 		default:
 			return 0; // Unreachable
 		}
@@ -71,6 +113,7 @@ public abstract class Kernel extends QMatrix {
 		this.degree = param.degree;
 		this.gamma = param.gamma;
 		this.coef0 = param.coef0;
+		this.nr_thread = Parallel.nr_thread(param.nrThreads);
 
 		x = (Node[][]) x_.clone();
 
@@ -80,6 +123,46 @@ public abstract class Kernel extends QMatrix {
 				x_square[i] = dot(x[i], x[i]);
 		} else
 			x_square = null;
+
+		// use the session only if it knows every sample of this problem
+		SessionCache s = SessionCache.current();
+		int[] s_index = null;
+		if (s != null && s.accepts(param)) {
+			s_index = new int[l];
+			for (int i = 0; i < l; i++)
+				if ((s_index[i] = s.index_of(x[i])) < 0) {
+					s_index = null;
+					break;
+				}
+		}
+		session = (s_index != null) ? s : null;
+		session_index = s_index;
+	}
+
+	// get_Q_columns on a full precision cache (y is null for one-class)
+	// the columns are taken from the cache one after the other, since fetching
+	// one may evict another, and the missing rows of each are computed in
+	// parallel
+	float[][] get_columns(Cache cache, final byte[] y, int[] index, int n, int len) {
+		if (batch == null || batch.length < n)
+			batch = new float[n][];
+		float[][] data = new float[1][];
+		for (int c = 0; c < n; c++) {
+			final int i = index[c];
+			final int start = cache.get_data(i, data, len);
+			final float[] Q_i = data[0];
+			int nr_chunk = Math.min(nr_thread, (len - start) / MIN_PARALLEL_ROWS);
+			Parallel.run(len - start, nr_chunk, new Parallel.Loop() {
+				public void run(int chunk, int begin, int end) {
+					for (int j = start + begin; j < start + end; j++) {
+						double k = kernel_function(i, j);
+						Q_i[j] = (float) ((y == null) ? k : y[i] * y[j] * k);
+					}
+				}
+			});
+			batch[c] = Q_i;
+		}
+		return batch;
 	}
 
 	static double dot(Node[] x, Node[] y) {
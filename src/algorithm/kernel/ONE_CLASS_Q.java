@@ -1,37 +1,146 @@
 package algorithm.kernel;
 
 import algorithm.Cache;
+import algorithm.SparseCache;
 import datamodel.Parameters;
 import datamodel.Problem;
 
 public class ONE_CLASS_Q extends Kernel {
 	private final Cache cache;
+	private final SparseCache sparse;
+	private final float[][] full;
+	private int[] perm; // original index of each variable of full
+	private float[][] buffer;
+	private int next_buffer;
+	private float[] column; // scratch of fill_sparse
 	private final double[] QD;
+	private final boolean symmetric;
 
 	public ONE_CLASS_Q(Problem prob, Parameters param) {
 		super(prob.l, prob.x, param);
-		cache = new Cache(prob.l, (long) (param.cacheSize * (1 << 20)));
+		if (param.sparseEpsilon > 0) {
+			cache = null;
+			sparse = new SparseCache(prob.l, (long) (param.cacheSize * (1 << 20)),
+					param.sparseEpsilon);
+			full = null;
+			buffer = new float[2][prob.l];
+			column = new float[prob.l];
+		} else if (GramMatrix.enabled(prob.l, param)) {
+			cache = null;
+			sparse = null;
+			full = GramMatrix.compute(this, null, param);
+			buffer = new float[2][prob.l];
+		} else {
+			cache = new Cache(prob.l, param);
+			sparse = null;
+			full = null;
+		}
+		symmetric = is_symmetric();
 		QD = new double[prob.l];
 		for (int i = 0; i < prob.l; i++)
 			QD[i] = kernel_function(i, i);
 	}
 
+	// compute column i over all l rows into the sparse cache
+	private void fill_sparse(int i) {
+		if (sparse.contains(i))
+			return;
+		float[] data = column;
+		for (int j = 0; j < data.length; j++)
+			data[j] = (float) kernel_function(i, j);
+		sparse.put(i, data);
+	}
+
 	public float[] get_Q(int i, int len) {
+		if (full != null) {
+			float[] buf = buffer[next_buffer];
+			next_buffer = 1 - next_buffer;
+			return GramMatrix.row(full, perm, i, len, buf);
+		}
+
+		if (sparse != null) {
+			fill_sparse(i);
+			float[] buf = buffer[next_buffer];
+			next_buffer = 1 - next_buffer;
+			sparse.get_dense(i, buf, len);
+			return buf;
+		}
+
 		float[][] data = new float[1][];
 		int start, j;
 		if ((start = cache.get_data(i, data, len)) < len) {
-			for (j = start; j < len; j++)
-				data[0][j] = (float) kernel_function(i, j);
+			if (symmetric) {
+				for (j = start; j < len; j++) {
+					float value = (j != i) ? cache.get_entry(j, i) : Float.NaN;
+					if (Float.isNaN(value))
+						value = (float) kernel_function(i, j);
+					data[0][j] = value;
+				}
+			} else
+				for (j = start; j < len; j++)
+					data[0][j] = (float) kernel_function(i, j);
+			cache.put_data(i, data[0], start, len);
 		}
 		return data[0];
 	}
 
+	public float[][] get_Q_columns(int[] index, int n, int len) {
+		if (cache == null || cache.is_half())
+			return super.get_Q_columns(index, n, len);
+		return get_columns(cache, null, index, n, len);
+	}
+
+	public void add_column(int i, double coef, double[] G, int begin, int end) {
+		if (sparse == null) {
+			super.add_column(i, coef, G, begin, end);
+			return;
+		}
+		fill_sparse(i);
+		sparse.add_column(i, coef, G, begin, end);
+	}
+
+	public int add_column(int i, double coef, double[] G, int begin, int end, int[] rows) {
+		if (sparse == null)
+			return super.add_column(i, coef, G, begin, end, rows);
+		fill_sparse(i);
+		return sparse.add_column(i, coef, G, begin, end, rows);
+	}
+
+	public float get_Q_entry(int i, int j) {
+		if (sparse == null)
+			return super.get_Q_entry(i, j);
+		fill_sparse(i);
+		return sparse.get_entry(i, j);
+	}
+
+	public boolean is_sparse() {
+		return sparse != null;
+	}
+
+	public void close() {
+		if (cache != null)
+			cache.close();
+	}
+
+	public boolean set_full_precision() {
+		return cache != null && cache.set_full_precision();
+	}
+
+	public double cache_hit_rate() {
+		return (cache != null) ? cache.hit_rate() : Double.NaN;
+	}
+
 	public double[] get_QD() {
 		return QD;
 	}
 
 	public void swap_index(int i, int j) {
-		cache.swap_index(i, j);
+		if (sparse != null)
+			sparse.swap_index(i, j);
+		else if (full != null)
+			perm = GramMatrix.swap_index(perm, full.length, i, j);
+		else
+			cache.swap_index(i, j);
 		super.swap_index(i, j);
 		do {
 			double tmp = QD[i];
@@ -8,17 +8,29 @@ public class SVR_Q extends Kernel
 {
 	private final int l;
 	private final Cache cache;
+	private final float[][] full;
 	private final byte[] sign;
 	private final int[] index;
 	private int next_buffer;
 	private float[][] buffer;
 	private final double[] QD;
+	private final boolean symmetric;
 
 	public SVR_Q(Problem prob, Parameters param)
 	{
 		super(prob.l, prob.x, param);
 		l = prob.l;
-		cache = new Cache(l,(long)(param.cacheSize*(1<<20)));
+		if(GramMatrix.enabled(l,param))
+		{
+			cache = null;
+			full = GramMatrix.compute(this,null,param);
+		}
+		else
+		{
+			cache = new Cache(l,param);
+			full = null;
+		}
+		symmetric = is_symmetric();
 		QD = new double[2*l];
 		sign = new byte[2*l];
 		index = new int[2*l];
@@ -46,10 +58,24 @@ public class SVR_Q extends Kernel
 	{
 		float[][] data = new float[1][];
 		int j, real_i = index[i];
-		if(cache.get_data(real_i,data,l) < l)
+		if(full != null)
+			data[0] = full[real_i];
+		else if(cache.get_data(real_i,data,l) < l)
 		{
-			for(j=0;j<l;j++)
-				data[0][j] = (float)kernel_function(real_i,j);
+			if(symmetric)
+			{
+				for(j=0;j<l;j++)
+				{
+					float value = (j != real_i) ? cache.get_entry(j,real_i) : Float.NaN;
+					if(Float.isNaN(value))
+						value = (float)kernel_function(real_i,j);
+					data[0][j] = value;
+				}
+			}
+			else
+				for(j=0;j<l;j++)
+					data[0][j] = (float)kernel_function(real_i,j);
+			cache.put_data(real_i,data[0],0,l);
 		}
 
 		// reorder and copy
@@ -61,6 +87,22 @@ public class SVR_Q extends Kernel
 		return buf;
 	}
 
+	public void close()
+	{
+		if(cache != null)
+			cache.close();
+	}
+
+	public boolean set_full_precision()
+	{
+		return cache != null && cache.set_full_precision();
+	}
+
+	public double cache_hit_rate()
+	{
+		return (cache != null) ? cache.hit_rate() : Double.NaN;
+	}
+
 	public double[] get_QD()
 	{
 		return QD;
@@ -50,6 +50,101 @@ public class Parameters implements Cloneable, java.io.Serializable {
 	 */
 	public double cacheSize;
 
+	/**
+	 * In MB, kernel values shared by all sub-problems of one training (0 to
+	 * disable)
+	 */
+	public double sessionCacheSize;
+
+	/**
+	 * Store the kernel cache in 16-bit (bfloat16) precision, 0 or 1
+	 */
+	public int halfCache;
+
+	/**
+	 * In MB, memory-mapped scratch space for columns evicted from the kernel
+	 * cache (0 to disable)
+	 */
+	public double spillSize;
+
+	/**
+	 * Drop kernel cache entries with |Q_ij| below this threshold and keep
+	 * sparse columns (0 to disable, not used for SVR)
+	 */
+	public double sparseEpsilon;
+
+	/**
+	 * Precompute the whole kernel matrix: 0 when it fits in cacheSize, 1
+	 * also beyond cacheSize while it takes at most half the heap, -1 never
+	 */
+	public int fullKernel;
+
+	/**
+	 * Number of threads for parallel kernel and solver work (0 for all
+	 * processors)
+	 */
+	public int nrThreads;
+
+	/**
+	 * Number of candidates searched for the second index of the working set,
+	 * taken from the blocks with the largest violations (0 for a full scan)
+	 */
+	public int nrCandidate;
+
+	/**
+	 * Maximal number of disjoint working set pairs updated per iteration (0 or
+	 * 1 for the single pair of the standard solver); cannot be combined with
+	 * workingSetSize > 2
+	 */
+	public int nrPair;
+
+	/**
+	 * Number of variables in a working set, whose subproblem is solved as a
+	 * whole when larger than 2 (0 or 2 for the standard two-variable solver)
+	 */
+	public int workingSetSize;
+
+	/**
+	 * Maximal number of iterations of each solver run (0 for the default of
+	 * max(10000000, 100*l))
+	 */
+	public int maxIterations;
+
+	/**
+	 * In seconds, wall-clock budget of a training; the solvers return their
+	 * current solution when it runs out (0 for no limit)
+	 */
+	public double timeLimit;
+
+	/**
+	 * Keep a smaller solver state, 0 or 1: the solver works on the arrays of
+	 * its caller instead of copies and only keeps G_bar when shrinking needs it
+	 */
+	public int compactSolver;
+
+	/**
+	 * Solver for linear C_SVC and EPSILON_SVR: 0 for dual coordinate descent
+	 * on w, with a model of one vector w per classifier, 1 for SMO as with the
+	 * other kernels
+	 */
+	public int linearSolver;
+
+	/**
+	 * Directory for checkpoints of the solver runs (null for none)
+	 */
+	public String checkpointDir;
+
+	/**
+	 * In seconds, time between the checkpoints of a solver run (0 to only
+	 * write its final state)
+	 */
+	public double checkpointInterval;
+
+	/**
+	 * Continue the solver runs from their checkpoints in checkpointDir, 0 or 1
+	 */
+	public int resume;
+
 	/**
 	 * Stopping criteria
 	 */
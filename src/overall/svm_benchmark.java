@@ -0,0 +1,200 @@
+package overall;
+import libsvm.*;
+import java.util.*;
+
+import algorithm.SVM;
+import datamodel.Node;
+import datamodel.Parameters;
+import datamodel.Problem;
+
+// Trains C-SVC on synthetic two-class problems of growing size and prints the
+// time per solver iteration, to see how the O(l) work of an iteration (working
+// set selection and gradient update) scales with l and the number of threads.
+class svm_benchmark {
+	private Parameters param;
+	private int nr_feature;
+	private long seed;
+	private int[] sizes;
+
+	// number of iterations reported by the solver since the last reset
+	private long iterations;
+
+	private static void exit_with_help()
+	{
+		System.out.print(
+		 "Usage: svm_benchmark [options] l1 [l2 ...]\n"
+		+"options:\n"
+		+"-n features : set number of features of the synthetic data (default 10)\n"
+		+"-g gamma : set gamma in kernel function (default 1/num_features)\n"
+		+"-c cost : set the parameter C (default 1)\n"
+		+"-m cachesize : set cache memory size in MB (default 100)\n"
+		+"-k full_kernel : precompute the whole kernel matrix, 0 if it fits in the cache, 1 up to half the heap, -1 never (default -1)\n"
+		+"-j threads : set number of threads for parallel work, 0 for all processors (default 0)\n"
+		+"-i size : select this many variables per iteration and solve their subproblem, 2 for SMO (default 2)\n"
+		+"-x pairs : update up to this many disjoint pairs per iteration, not with -i > 2 (default 1)\n"
+		+"-a candidates : search the second working set index among this many largest violators, 0 for all (default 0)\n"
+		+"-h shrinking : whether to use the shrinking heuristics, 0 or 1, 2 to adapt it to its costs (default 1)\n"
+		+"-r seed : set seed of the random data (default 1)\n"
+		);
+		System.exit(1);
+	}
+
+	private void run(String argv[])
+	{
+		parse_command_line(argv);
+		SVM.svm_set_print_string_function(new PrintInterface()
+		{
+			public void print(String s)
+			{
+				int p = s.indexOf("#iter = ");
+				if(p >= 0)
+					iterations += Long.parseLong(s.substring(p+8).trim());
+			}
+		});
+
+		System.out.print("l\t#iter\tseconds\tus/iter\n");
+		for(int l : sizes)
+		{
+			Problem prob = generate_problem(l);
+			String error_msg = SVM.svm_check_parameter(prob,param);
+			if(error_msg != null)
+			{
+				System.err.print("ERROR: "+error_msg+"\n");
+				System.exit(1);
+			}
+
+			iterations = 0;
+			long start = System.nanoTime();
+			SVM.svm_train(prob,param);
+			double seconds = (System.nanoTime()-start)/1e9;
+			System.out.print(l+"\t"+iterations+"\t"+seconds+"\t"
+				+(iterations > 0 ? seconds*1e6/iterations : 0)+"\n");
+		}
+	}
+
+	// two overlapping Gaussian classes with means -0.5 and +0.5 in every
+	// feature, so that a good part of the samples end up as support vectors
+	private Problem generate_problem(int l)
+	{
+		Random random = new Random(seed);
+		Problem prob = new Problem();
+		prob.l = l;
+		prob.y = new double[l];
+		prob.x = new Node[l][nr_feature];
+		for(int i=0;i<l;i++)
+		{
+			prob.y[i] = (i%2 == 0) ? +1 : -1;
+			for(int j=0;j<nr_feature;j++)
+			{
+				Node node = new Node();
+				node.index = j+1;
+				node.value = 0.5*prob.y[i] + random.nextGaussian();
+				prob.x[i][j] = node;
+			}
+		}
+		return prob;
+	}
+
+	public static void main(String argv[])
+	{
+		svm_benchmark b = new svm_benchmark();
+		b.run(argv);
+	}
+
+	private static double atof(String s)
+	{
+		return Double.valueOf(s).doubleValue();
+	}
+
+	private static int atoi(String s)
+	{
+		return Integer.parseInt(s);
+	}
+
+	private void parse_command_line(String argv[])
+	{
+		int i;
+
+		param = new Parameters();
+		// default values
+		param.svmType = Parameters.C_SVC;
+		param.kernelType = Parameters.RBF;
+		param.degree = 3;
+		param.gamma = 0;	// 1/num_features
+		param.coef0 = 0;
+		param.nu = 0.5;
+		param.cacheSize = 100;
+		param.fullKernel = -1;
+		param.nrThreads = 0;
+		param.nrCandidate = 0;
+		param.nrPair = 1;
+		param.workingSetSize = 2;
+		param.C = 1;
+		param.eps = 1e-3;
+		param.p = 0.1;
+		param.shrinking = 1;
+		param.probability = 0;
+		param.nrWeight = 0;
+		param.weightLabel = new int[0];
+		param.weight = new double[0];
+		nr_feature = 10;
+		seed = 1;
+
+		// parse options
+		for(i=0;i<argv.length;i++)
+		{
+			if(argv[i].charAt(0) != '-') break;
+			if(++i>=argv.length)
+				exit_with_help();
+			switch(argv[i-1].charAt(1))
+			{
+				case 'n':
+					nr_feature = atoi(argv[i]);
+					break;
+				case 'g':
+					param.gamma = atof(argv[i]);
+					break;
+				case 'c':
+					param.C = atof(argv[i]);
+					break;
+				case 'm':
+					param.cacheSize = atof(argv[i]);
+					break;
+				case 'k':
+					param.fullKernel = atoi(argv[i]);
+					break;
+				case 'j':
+					param.nrThreads = atoi(argv[i]);
+					break;
+				case 'i':
+					param.workingSetSize = atoi(argv[i]);
+					break;
+				case 'x':
+					param.nrPair = atoi(argv[i]);
+					break;
+				case 'a':
+					param.nrCandidate = atoi(argv[i]);
+					break;
+				case 'h':
+					param.shrinking = atoi(argv[i]);
+					break;
+				case 'r':
+					seed = Long.parseLong(argv[i]);
+					break;
+				default:
+					System.err.print("Unknown option: " + argv[i-1] + "\n");
+					exit_with_help();
+			}
+		}
+
+		if(i>=argv.length)
+			exit_with_help();
+
+		if(param.gamma == 0)
+			param.gamma = 1.0/nr_feature;
+
+		sizes = new int[argv.length-i];
+		for(int k=0;k<sizes.length;k++)
+			sizes[k] = atoi(argv[i+k]);
+	}
+}
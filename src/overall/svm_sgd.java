@@ -0,0 +1,139 @@
+package overall;
+import libsvm.*;
+import java.io.*;
+
+import algorithm.PegasosSVM;
+import algorithm.SVM;
+import datamodel.Model;
+
+// train a linear SVM by stochastic sub-gradient descent, streaming over the
+// training file, so that it does not have to fit in memory
+class svm_sgd {
+	private PegasosSVM sgd;
+	private String input_file_name;		// set by parse_command_line
+	private String model_file_name;		// set by parse_command_line
+
+	private static PrintInterface svm_print_null = new PrintInterface()
+	{
+		public void print(String s) {}
+	};
+
+	private static void exit_with_help()
+	{
+		System.out.print(
+		 "Usage: svm_sgd [options] training_set_file [model_file]\n"
+		+"options:\n"
+		+"-l lambda : set the regularization parameter, 1/(C*l) for C-SVC (default 1e-4)\n"
+		+"-b batch_size : set number of samples per step (default 1)\n"
+		+"-e passes : set number of passes over the training file (default 1)\n"
+		+"-s schedule : set step size schedule (default 0)\n"
+		+"	0 -- 1/(lambda*t)\n"
+		+"	1 -- eta0/(1+lambda*eta0*t)\n"
+		+"	2 -- eta0\n"
+		+"-n eta0 : set initial step size for schedules 1 and 2 (default 0.1)\n"
+		+"-a averaging : whether to average w over the steps, 0 or 1 (default 0)\n"
+		+"-q : quiet mode (no outputs)\n"
+		);
+		System.exit(1);
+	}
+
+	private void run(String argv[]) throws IOException
+	{
+		parse_command_line(argv);
+		long start = System.nanoTime();
+		Model model = sgd.train(input_file_name);
+		SVM.info("Training time = "+(System.nanoTime()-start)/1e9+" s\n");
+		SVM.svm_save_model(model_file_name,model);
+	}
+
+	public static void main(String argv[]) throws IOException
+	{
+		svm_sgd t = new svm_sgd();
+		t.run(argv);
+	}
+
+	private static double atof(String s)
+	{
+		double d = Double.valueOf(s).doubleValue();
+		if (Double.isNaN(d) || Double.isInfinite(d))
+		{
+			System.err.print("NaN or Infinity in input\n");
+			System.exit(1);
+		}
+		return(d);
+	}
+
+	private static int atoi(String s)
+	{
+		return Integer.parseInt(s);
+	}
+
+	private void parse_command_line(String argv[])
+	{
+		int i;
+		PrintInterface print_func = null;	// default printing to stdout
+
+		sgd = new PegasosSVM();
+
+		// parse options
+		for(i=0;i<argv.length;i++)
+		{
+			if(argv[i].charAt(0) != '-') break;
+			if(++i>=argv.length)
+				exit_with_help();
+			switch(argv[i-1].charAt(1))
+			{
+				case 'l':
+					sgd.lambda = atof(argv[i]);
+					break;
+				case 'b':
+					sgd.batchSize = atoi(argv[i]);
+					break;
+				case 'e':
+					sgd.nrPass = atoi(argv[i]);
+					break;
+				case 's':
+					sgd.schedule = atoi(argv[i]);
+					break;
+				case 'n':
+					sgd.eta0 = atof(argv[i]);
+					break;
+				case 'a':
+					sgd.averaging = atoi(argv[i]) != 0;
+					break;
+				case 'q':
+					print_func = svm_print_null;
+					i--;
+					break;
+				default:
+					System.err.print("Unknown option: " + argv[i-1] + "\n");
+					exit_with_help();
+			}
+		}
+
+		if(sgd.lambda <= 0 || sgd.batchSize < 1 || sgd.nrPass < 1 || sgd.eta0 <= 0
+			|| sgd.schedule < 0 || sgd.schedule > 2)
+		{
+			System.err.print("ERROR: lambda <= 0, batch_size < 1, passes < 1, eta0 <= 0 or unknown schedule\n");
+			System.exit(1);
+		}
+
+		SVM.svm_set_print_string_function(print_func);
+
+		// determine filenames
+
+		if(i>=argv.length)
+			exit_with_help();
+
+		input_file_name = argv[i];
+
+		if(i<argv.length-1)
+			model_file_name = argv[i+1];
+		else
+		{
+			int p = argv[i].lastIndexOf('/');
+			++p;	// whew...
+			model_file_name = argv[i].substring(p)+".model";
+		}
+	}
+}
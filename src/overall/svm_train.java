@@ -3,7 +3,11 @@ import libsvm.*;
 import java.io.*;
 import java.util.*;
 
+import algorithm.CascadeSVM;
+import algorithm.DCSVM;
 import algorithm.SVM;
+import algorithm.SolverProgressWriter;
+import algorithm.TrainingControl;
 import datamodel.Model;
 import datamodel.Node;
 import datamodel.Parameters;
@@ -18,6 +22,8 @@ class svm_train {
 	private String error_msg;
 	private int cross_validation;
 	private int nr_fold;
+	private int nr_partition;
+	private int nr_cluster;
 
 	private static PrintInterface svm_print_null = new PrintInterface()
 	{
@@ -48,10 +54,29 @@ class svm_train {
 		+"-n nu : set the parameter nu of nu-SVC, one-class SVM, and nu-SVR (default 0.5)\n"
 		+"-p epsilon : set the epsilon in loss function of epsilon-SVR (default 0.1)\n"
 		+"-m cachesize : set cache memory size in MB (default 100)\n"
+		+"-M cachesize : set session cache memory size in MB, shared by all pairs and folds (default 0)\n"
+		+"-D spillsize : set disk spill size in MB for columns evicted from the cache (default 0)\n"
+		+"-z epsilon : drop cached kernel values below epsilon and keep sparse columns (default 0)\n"
+		+"-k full_kernel : precompute the whole kernel matrix, 0 if it fits in the cache, 1 up to half the heap, -1 never (default 0)\n"
+		+"-j threads : set number of threads for parallel work, 0 for all processors (default 0)\n"
+		+"-i size : select this many variables per iteration and solve their subproblem, 2 for SMO (default 2)\n"
+		+"-x pairs : update up to this many disjoint pairs per iteration, not with -i > 2 (default 1)\n"
+		+"-a candidates : search the second working set index among this many largest violators, 0 for all (default 0)\n"
+		+"-f half_cache : whether to store the kernel cache in 16-bit precision, 0 or 1 (default 0)\n"
 		+"-e epsilon : set tolerance of termination criterion (default 0.001)\n"
-		+"-h shrinking : whether to use the shrinking heuristics, 0 or 1 (default 1)\n"
+		+"-o max_iter : set maximal number of iterations of each solver run, 0 for max(10000000,100*l) (default 0)\n"
+		+"-l seconds : stop training after this time and save the current solution, 0 for no limit (default 0)\n"
+		+"-L linear_solver : for the linear kernel, 0 for dual coordinate descent on C-SVC and epsilon-SVR, 1 for SMO (default 0)\n"
+		+"-y compact : whether to keep a smaller solver state, 0 or 1 (default 0)\n"
+		+"-K directory : write checkpoints of the solver runs to directory\n"
+		+"-I seconds : set time between checkpoints of a solver run (default 600)\n"
+		+"-R resume : whether to resume from the checkpoints in the -K directory, 0 or 1 (default 0)\n"
+		+"-u interval : write the solver progress as CSV to stderr every interval iterations, 0 for none (default 0)\n"
+		+"-h shrinking : whether to use the shrinking heuristics, 0 or 1, 2 to adapt it to its costs (default 1)\n"
 		+"-b probability_estimates : whether to train a SVC or SVR model for probability estimates, 0 or 1 (default 0)\n"
 		+"-wi weight : set the parameter C of class i to weight*C, for C-SVC (default 1)\n"
+		+"-P partitions : train a cascade of SVMs from this many partitions, for C-SVC and epsilon-SVR (default 0)\n"
+		+"-C clusters : train from local SVMs on this many kernel k-means clusters (default 0)\n"
 		+"-v n : n-fold cross validation mode\n"
 		+"-q : quiet mode (no outputs)\n"
 		);
@@ -66,7 +91,9 @@ class svm_train {
 		double sumv = 0, sumy = 0, sumvv = 0, sumyy = 0, sumvy = 0;
 		double[] target = new double[prob.l];
 
-		SVM.svm_cross_validation(prob,param,nr_fold,target);
+		TrainingControl control = new TrainingControl();
+		SVM.svm_cross_validation(prob,param,nr_fold,target,control);
+		report_stop(control);
 		if(param.svmType == Parameters.EPSILON_SVR ||
 		   param.svmType == Parameters.NU_SVR)
 		{
@@ -96,6 +123,13 @@ class svm_train {
 		}
 	}
 
+	private static void report_stop(TrainingControl control)
+	{
+		if(control.stopped_early())
+			System.err.print("WARNING: training stopped before reaching epsilon, duality gap = "
+				+control.duality_gap()+"\n");
+	}
+
 	private void run(String argv[]) throws IOException
 	{
 		parse_command_line(argv);
@@ -114,8 +148,17 @@ class svm_train {
 		}
 		else
 		{
-			model = SVM.svm_train(prob,param);
+			TrainingControl control = new TrainingControl();
+			if(nr_partition > 0)
+				model = CascadeSVM.train(prob,param,nr_partition,control);
+			else if(nr_cluster > 0)
+				model = DCSVM.svm_train(prob,param,nr_cluster,control);
+			else
+				model = SVM.svm_train(prob,param,null,control);
+			report_stop(control);
 			SVM.svm_save_model(model_file_name,model);
+			if(!control.stopped_early())
+				SVM.svm_delete_checkpoints(param);
 		}
 	}
 
@@ -155,6 +198,22 @@ class svm_train {
 		param.coef0 = 0;
 		param.nu = 0.5;
 		param.cacheSize = 100;
+		param.sessionCacheSize = 0;
+		param.halfCache = 0;
+		param.spillSize = 0;
+		param.sparseEpsilon = 0;
+		param.fullKernel = 0;
+		param.nrThreads = 0;
+		param.nrCandidate = 0;
+		param.nrPair = 1;
+		param.workingSetSize = 2;
+		param.maxIterations = 0;
+		param.timeLimit = 0;
+		param.compactSolver = 0;
+		param.linearSolver = 0;
+		param.checkpointDir = null;
+		param.checkpointInterval = 600;
+		param.resume = 0;
 		param.C = 1;
 		param.eps = 1e-3;
 		param.p = 0.1;
@@ -164,6 +223,8 @@ class svm_train {
 		param.weightLabel = new int[0];
 		param.weight = new double[0];
 		cross_validation = 0;
+		nr_partition = 0;
+		nr_cluster = 0;
 
 		// parse options
 		for(i=0;i<argv.length;i++)
@@ -194,6 +255,65 @@ class svm_train {
 				case 'm':
 					param.cacheSize = atof(argv[i]);
 					break;
+				case 'M':
+					param.sessionCacheSize = atof(argv[i]);
+					break;
+				case 'D':
+					param.spillSize = atof(argv[i]);
+					break;
+				case 'z':
+					param.sparseEpsilon = atof(argv[i]);
+					break;
+				case 'k':
+					param.fullKernel = atoi(argv[i]);
+					break;
+				case 'j':
+					param.nrThreads = atoi(argv[i]);
+					break;
+				case 'i':
+					param.workingSetSize = atoi(argv[i]);
+					break;
+				case 'x':
+					param.nrPair = atoi(argv[i]);
+					break;
+				case 'a':
+					param.nrCandidate = atoi(argv[i]);
+					break;
+				case 'o':
+					param.maxIterations = atoi(argv[i]);
+					break;
+				case 'l':
+					param.timeLimit = atof(argv[i]);
+					break;
+				case 'L':
+					param.linearSolver = atoi(argv[i]);
+					break;
+				case 'y':
+					param.compactSolver = atoi(argv[i]);
+					break;
+				case 'K':
+					param.checkpointDir = argv[i];
+					break;
+				case 'I':
+					param.checkpointInterval = atof(argv[i]);
+					break;
+				case 'R':
+					param.resume = atoi(argv[i]);
+					break;
+				case 'P':
+					nr_partition = atoi(argv[i]);
+					break;
+				case 'C':
+					nr_cluster = atoi(argv[i]);
+					break;
+				case 'u':
+					if(atoi(argv[i]) > 0)
+						SVM.svm_set_solver_listener(new SolverProgressWriter(
+							new OutputStreamWriter(System.err),false),atoi(argv[i]));
+					break;
+				case 'f':
+					param.halfCache = atoi(argv[i]);
+					break;
 				case 'c':
 					param.C = atof(argv[i]);
 					break;